@@ -1,15 +1,33 @@
 package de.novatec.apm287;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
 
 import de.novatec.apm287.akka.service.AkkaStockService;
+import de.novatec.apm287.book.OrderSettlement;
+import de.novatec.apm287.common.metrics.StockMetrics;
+import de.novatec.apm287.common.metrics.TimedStockService;
+import de.novatec.apm287.common.service.ApprovalService;
+import de.novatec.apm287.common.service.BatchingApprovalService;
+import de.novatec.apm287.common.service.CachingApprovalService;
+import de.novatec.apm287.common.service.IApprovalService;
 import de.novatec.apm287.common.service.IStockService;
+import de.novatec.apm287.java.concurrent.ConcurrentStockManager;
 import de.novatec.apm287.java.service.JavaConcurrentStockService;
+import de.novatec.apm287.java.service.JavaLockFreeStockService;
+import de.novatec.apm287.java.service.JavaPartitionedStockService;
+import de.novatec.apm287.java.service.JavaRingBufferStockService;
 import de.novatec.apm287.java.service.JavaSyncStockService;
+import de.novatec.apm287.java.sync.StockManager;
+import de.novatec.apm287.reactor.service.ReactorStockService;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 @SpringBootApplication
@@ -28,9 +46,78 @@ public class Apm287Application {
 			return new JavaSyncStockService();
 		case "java-concurrent":
 			return new JavaConcurrentStockService();
+		case "java-lockfree":
+			return new JavaLockFreeStockService();
+		case "java-ringbuffer":
+			return new JavaRingBufferStockService();
+		case "java-partitioned":
+			return new JavaPartitionedStockService();
+		case "reactor":
+			return new ReactorStockService();
 		default:
 			return null;
 		}
 	}
 
+	@Bean
+	@Primary
+	IStockService getTimedStockService(@Qualifier("getStockService") IStockService stockService,
+			@Value("${apm287.service}") String service, StockMetrics metrics) {
+		return new TimedStockService(stockService, service, metrics);
+	}
+
+	/**
+	 * Account the order books settle with, only the services keeping the
+	 * balance and holdings in one place support it.
+	 */
+	@Bean
+	@Primary
+	OrderSettlement getOrderSettlement(@Value("${apm287.service}") String service,
+			ObjectProvider<StockManager> stockManager, ObjectProvider<ConcurrentStockManager> concurrentStockManager) {
+		switch (service) {
+		case "java-sync":
+			return stockManager.getObject();
+		case "java-concurrent":
+			return concurrentStockManager.getObject();
+		default:
+			return OrderSettlement.UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Created only when batching is enabled, as bean so its timer is shut down
+	 * with the context.
+	 */
+	@Bean
+	@Lazy
+	BatchingApprovalService getBatchingApprovalService(ApprovalService approvalService,
+			@Value("${apm287.appoval.batch.window}") long batchWindow,
+			@Value("${apm287.appoval.batch.maxSize}") int batchMaxSize) {
+		return new BatchingApprovalService(approvalService, batchWindow, batchMaxSize);
+	}
+
+	@Bean
+	@Primary
+	IApprovalService getApprovalService(ApprovalService approvalService,
+			ObjectProvider<BatchingApprovalService> batchingApprovalService,
+			@Value("${apm287.appoval.batch.enabled}") boolean batchEnabled,
+			@Value("${apm287.appoval.cache.enabled}") boolean cacheEnabled,
+			@Value("${apm287.appoval.cache.ttl}") long cacheTtl,
+			@Value("${apm287.appoval.cache.maxSize}") long cacheMaxSize,
+			@Value("${apm287.appoval.cache.sizeBucket}") int cacheSizeBucket,
+			@Value("${apm287.appoval.cache.negative}") boolean cacheNegative,
+			MeterRegistry registry) {
+		IApprovalService result = approvalService;
+		if (batchEnabled) {
+			result = batchingApprovalService.getObject();
+		}
+		if (cacheEnabled) {
+			CachingApprovalService cachingApprovalService = new CachingApprovalService(result, cacheTtl, cacheMaxSize,
+					cacheSizeBucket, cacheNegative);
+			cachingApprovalService.bindTo(registry);
+			result = cachingApprovalService;
+		}
+		return result;
+	}
+
 }
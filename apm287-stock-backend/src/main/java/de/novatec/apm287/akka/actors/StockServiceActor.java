@@ -1,43 +1,67 @@
 package de.novatec.apm287.akka.actors;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.actor.Status;
 import akka.pattern.CircuitBreaker;
 import akka.persistence.AbstractPersistentActor;
+import akka.persistence.DeleteMessagesFailure;
+import akka.persistence.DeleteMessagesSuccess;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.DeleteSnapshotsSuccess;
 import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotMetadata;
 import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
 import de.novatec.apm287.akka.actors.state.BalanceState;
 import de.novatec.apm287.akka.actors.state.BalanceUpdateEvent;
+import de.novatec.apm287.akka.messages.Message.ApprovalResult;
 import de.novatec.apm287.akka.messages.Message.BalanceReply;
 import de.novatec.apm287.akka.messages.Message.BalanceRequest;
+import de.novatec.apm287.akka.messages.Message.BatchApprovalResult;
 import de.novatec.apm287.akka.messages.Message.BuyRequest;
 import de.novatec.apm287.akka.messages.Message.OverviewReply;
 import de.novatec.apm287.akka.messages.Message.OverviewRequest;
+import de.novatec.apm287.akka.messages.Message.PriceUpdates;
 import de.novatec.apm287.akka.messages.Message.SellRequest;
+import de.novatec.apm287.akka.messages.Message.TradeBatchRequest;
+import de.novatec.apm287.akka.stream.PriceFeed;
 import de.novatec.apm287.common.BalanceInfo;
 import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.ExposureTracker;
 import de.novatec.apm287.common.PriceUpdate;
 import de.novatec.apm287.common.StockInfo;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.TradeBatch.Order;
+import de.novatec.apm287.common.TradeBatchExecution;
 import de.novatec.apm287.common.Util;
-import de.novatec.apm287.common.service.ApprovalService;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import io.micrometer.core.instrument.Timer;
 import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
 public class StockServiceActor extends AbstractPersistentActor {
 
 	/**
 	 * @return props for creating this actor.
 	 */
-	public static Props props(Optional<Double> balance, ApprovalService approvalService) {
-		return Props.create(StockServiceActor.class, () -> new StockServiceActor(balance, approvalService));
+	public static Props props(Optional<Double> balance, StockUniverse universe, IApprovalService approvalService,
+			PriceStream priceStream, StockResponseCache responseCache, CircuitBreaker circuitBreaker, Timer recoveryTimer) {
+		return Props.create(StockServiceActor.class, () -> new StockServiceActor(balance, universe, approvalService,
+				priceStream, responseCache, circuitBreaker, recoveryTimer));
 	}
 
 	/**
@@ -51,38 +75,146 @@ public class StockServiceActor extends AbstractPersistentActor {
 	private int approveThreshold = 5;
 
 	/**
-	 * Map where we hold current data.
+	 * Stocks that can be traded.
 	 */
-	private Map<String, StockInfo> codeToStock = new HashMap<>();
+	private StockUniverse universe;
 
 	/**
-	 * Circuit breaker for calling the service.
+	 * Current data for each stock id, <code>null</code> until the stock is
+	 * priced. Holdings include the trades not yet persisted.
+	 */
+	private StockInfo[] stocks;
+
+	/**
+	 * Trades waiting to be persisted with the next batch.
+	 */
+	private List<PendingTrade> pendingTrades = new ArrayList<>();
+
+	/**
+	 * Exposure updated on each price and holding change.
+	 */
+	private ExposureTracker exposure = new ExposureTracker();
+
+	/**
+	 * Balance change of the trades not yet persisted, balance reserved by
+	 * pending buys is thus already taken.
+	 */
+	private double unpersistedBalance;
+
+	/**
+	 * Circuit breaker for calling the service, shared by the incarnations of
+	 * the actor.
 	 */
 	private CircuitBreaker circuitBreaker;
 
 	/**
 	 * Approval service.
 	 */
-	private ApprovalService approvalService;
+	private IApprovalService approvalService;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	private PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	private StockResponseCache responseCache;
+
+	/**
+	 * Snapshot is saved after this amount of persisted events, <code>0</code> to
+	 * disable.
+	 */
+	private int snapshotEveryEvents;
+
+	/**
+	 * Events persisted since the last snapshot.
+	 */
+	private int eventsSinceSnapshot;
+
+	/**
+	 * If snapshot should be saved as soon as there are no events being
+	 * persisted.
+	 */
+	private boolean snapshotRequested;
+
+	/**
+	 * Events sent to the journal but not yet handled.
+	 */
+	private int persistingEvents;
+
+	/**
+	 * Periodic snapshot task, <code>null</code> if snapshots are not saved
+	 * periodically.
+	 */
+	private Cancellable snapshotTask;
+
+	/**
+	 * Periodic exposure reconciliation task, <code>null</code> if disabled.
+	 */
+	private Cancellable reconcileTask;
+
+	/**
+	 * When the recovery started in nanoseconds.
+	 */
+	private long recoveryStart = System.nanoTime();
+
+	/**
+	 * Time of the recoveries, shared by the incarnations of the actor.
+	 */
+	private Timer recoveryTimer;
 
 	/**
 	 * @param balance
 	 *            Optionally balance to start with.
 	 */
-	public StockServiceActor(Optional<Double> balance, ApprovalService approvalService) {
+	public StockServiceActor(Optional<Double> balance, StockUniverse universe, IApprovalService approvalService,
+			PriceStream priceStream, StockResponseCache responseCache, CircuitBreaker circuitBreaker,
+			Timer recoveryTimer) {
 		if (balance.isPresent()) {
 			this.balanceState = new BalanceState(balance.get().doubleValue());
 		} else {
 			this.balanceState = new BalanceState(10_000);
 		}
+		this.universe = universe;
+		this.stocks = new StockInfo[universe.size()];
 		this.approvalService = approvalService;
-		this.circuitBreaker = new CircuitBreaker(getContext().dispatcher(), getContext().system().scheduler(), 5,
-				Duration.create(50, TimeUnit.MILLISECONDS), Duration.create(1, TimeUnit.MINUTES));
+		this.priceStream = priceStream;
+		this.responseCache = responseCache;
+		this.circuitBreaker = circuitBreaker;
+		this.recoveryTimer = recoveryTimer;
 		
+		ActorSystem system = getContext().getSystem();
 		if (10_000 == balanceState.getTotal()) {
-			ActorSystem system = getContext().getSystem();
 			system.scheduler().scheduleOnce(Duration.create(1, "minute"), getSelf(), "restart", system.dispatcher(), null);
 		}
+
+		// snapshot policy
+		this.snapshotEveryEvents = system.settings().config().getInt("apm287.akka.snapshot.every-events");
+		long snapshotInterval = system.settings().config().getDuration("apm287.akka.snapshot.interval", TimeUnit.MILLISECONDS);
+		if (snapshotInterval > 0) {
+			FiniteDuration interval = Duration.create(snapshotInterval, TimeUnit.MILLISECONDS);
+			this.snapshotTask = system.scheduler().schedule(interval, interval, getSelf(), "snapshot", system.dispatcher(), null);
+		}
+
+		// exposure reconciliation
+		long reconcileInterval = system.settings().config().getDuration("apm287.akka.exposure.reconcile-interval", TimeUnit.MILLISECONDS);
+		if (reconcileInterval > 0) {
+			FiniteDuration interval = Duration.create(reconcileInterval, TimeUnit.MILLISECONDS);
+			this.reconcileTask = system.scheduler().schedule(interval, interval, getSelf(), "reconcile", system.dispatcher(), null);
+		}
+	}
+
+	@Override
+	public void postStop() throws Exception {
+		if (null != snapshotTask) {
+			snapshotTask.cancel();
+		}
+		if (null != reconcileTask) {
+			reconcileTask.cancel();
+		}
+		super.postStop();
 	}
 
 	@Override
@@ -93,9 +225,14 @@ public class StockServiceActor extends AbstractPersistentActor {
 	@Override
 	public Receive createReceiveRecover() {
 		return receiveBuilder()
-				.match(BalanceUpdateEvent.class, balanceState::update)
+				.match(BalanceUpdateEvent.class, e -> balanceState.update(e))
 				.match(SnapshotOffer.class, ss -> balanceState = (BalanceState) ss.snapshot())
-				.match(RecoveryCompleted.class, r -> System.out.println("Balance after recovery " + balanceState.getTotal()))
+				.match(RecoveryCompleted.class, r -> {
+					long recoveryTime = System.nanoTime() - recoveryStart;
+					recoveryTimer.record(recoveryTime, TimeUnit.NANOSECONDS);
+					System.out.println("Balance after recovery " + balanceState.getTotal() + ", recovery took "
+							+ TimeUnit.NANOSECONDS.toMillis(recoveryTime) + " ms");
+				})
 				.build();
 	}
 
@@ -105,34 +242,118 @@ public class StockServiceActor extends AbstractPersistentActor {
 	@Override
 	public Receive createReceive() {
 		return receiveBuilder()
-				.match(PriceUpdate.class, this::priceUpdate).match(OverviewRequest.class, r -> {
-					getSender().tell(new OverviewReply(Collections.unmodifiableCollection(codeToStock.values())), getSelf());
+				.match(PriceUpdate.class, this::priceUpdate)
+				.match(PriceUpdates.class, b -> {
+					b.updates.forEach(this::priceUpdate);
+					getSender().tell(PriceFeed.ACK, getSelf());
+				})
+				.matchEquals(PriceFeed.INIT, m -> getSender().tell(PriceFeed.ACK, getSelf()))
+				.matchEquals(PriceFeed.COMPLETED, m -> {})
+				.match(Status.Failure.class, f -> System.out.println("Price feed failed " + f.cause()))
+				.match(OverviewRequest.class, r -> {
+					List<StockInfo> stockInfos = new ArrayList<>(stocks.length);
+					for (StockInfo stockInfo : stocks) {
+						if (null != stockInfo) {
+							stockInfos.add(stockInfo);
+						}
+					}
+					getSender().tell(new OverviewReply(stockInfos), getSelf());
 				})
 				.match(BalanceRequest.class, r -> {
-					BalanceInfo balanceInfo = new BalanceInfo(balanceState.getTotal(), getExposure());
+					BalanceInfo balanceInfo = new BalanceInfo(balanceState.getTotal(), exposure.get());
 					getSender().tell(new BalanceReply(balanceInfo), getSelf());
 				})
 				.match(BuyRequest.class, this::buyRequest)
+				.match(ApprovalResult.class, this::approvalResult)
 				.match(SellRequest.class, this::sellRequest)
+				.match(TradeBatchRequest.class, this::tradeBatchRequest)
+				.match(BatchApprovalResult.class, this::batchApprovalResult)
+				.matchEquals("persist", m -> persistPending())
 				.matchEquals("restart", m -> {
 					System.out.println("Balance before failing " + balanceState.getTotal());
 					throw new Exception("I had to dieeee");
 				})
+				.matchEquals("snapshot", m -> {
+					if (eventsSinceSnapshot > 0) {
+						requestSnapshot();
+					}
+				})
+				.matchEquals("reconcile", m -> {
+					exposure.reconcile(this::getExposure);
+					if (0 != exposure.getLastDrift()) {
+						System.out.println("Exposure reconciled with drift " + exposure.getLastDrift());
+					}
+				})
+				.match(SaveSnapshotSuccess.class, this::deleteBeforeSnapshot)
+				.match(SaveSnapshotFailure.class, f -> System.out.println("Saving snapshot failed " + f.cause()))
+				.match(DeleteMessagesSuccess.class, d -> {})
+				.match(DeleteMessagesFailure.class, f -> System.out.println("Deleting events failed " + f.cause()))
+				.match(DeleteSnapshotsSuccess.class, d -> {})
+				.match(DeleteSnapshotsFailure.class, f -> System.out.println("Deleting snapshots failed " + f.cause()))
 				.build();
 	}
 
 	/**
-	 * @return Current exposure in stocks.
+	 * Counts the persisted event and requests snapshot if enough events were
+	 * persisted since the last one.
+	 */
+	private void eventPersisted() {
+		eventsSinceSnapshot++;
+		persistingEvents--;
+		if (snapshotRequested || (snapshotEveryEvents > 0 && eventsSinceSnapshot >= snapshotEveryEvents)) {
+			requestSnapshot();
+		}
+	}
+
+	/**
+	 * Saves snapshot of the current state once all events sent to the journal
+	 * are handled, as snapshot gets the sequence number of the last sent event.
+	 * Until then no new trades are sent to the journal.
+	 */
+	private void requestSnapshot() {
+		snapshotRequested = true;
+		if (persistingEvents > 0) {
+			return;
+		}
+
+		snapshotRequested = false;
+		eventsSinceSnapshot = 0;
+		saveSnapshot(balanceState.copy());
+
+		// continue with trades waiting for the snapshot
+		if (!pendingTrades.isEmpty()) {
+			getSelf().tell("persist", getSelf());
+		}
+	}
+
+	/**
+	 * Once snapshot is saved events and snapshots before it are not needed for
+	 * the recovery.
+	 */
+	private void deleteBeforeSnapshot(SaveSnapshotSuccess success) {
+		SnapshotMetadata metadata = success.metadata();
+		deleteMessages(metadata.sequenceNr());
+		deleteSnapshots(SnapshotSelectionCriteria.create(metadata.sequenceNr() - 1, metadata.timestamp() - 1));
+	}
+
+	/**
+	 * @return Current exposure in stocks computed from all stocks.
 	 */
 	private double getExposure() {
-		return codeToStock.values().stream().mapToDouble(s -> s.price * s.holding).sum();
+		double exposure = 0;
+		for (StockInfo stockInfo : stocks) {
+			if (null != stockInfo) {
+				exposure += stockInfo.price * stockInfo.holding;
+			}
+		}
+		return exposure;
 	}
 
 	/**
 	 * Executes buy request.
 	 */
 	private void buyRequest(BuyRequest request) {
-		StockInfo stockInfo = codeToStock.get(request.code);
+		StockInfo stockInfo = getStock(request.code);
 		if (null == stockInfo) {
 			getSender().tell(new BuySellResponse(false, null, "Wrong stock code."), getSelf());
 			return;
@@ -144,57 +365,61 @@ public class StockServiceActor extends AbstractPersistentActor {
 
 		if (request.size > approveThreshold) {
 			// first call service with circuit breaker then handle result in
-			// async mode
+			// async mode by sending result to self
 			// note here we are on 50 ms timeout
 			final ActorRef sender = getSender();
+			final ActorRef self = getSelf();
 
-			circuitBreaker.callWithCircuitBreakerCS(() -> CompletableFuture.supplyAsync(() -> {
-				return approvalService.approve(request.code, request.size);
-			}, getContext().dispatcher())).whenCompleteAsync((b, t) -> {
-				if (null != t) {
-					if (t instanceof TimeoutException) {
-						sender.tell(new BuySellResponse(false, null, "Approval resulted in timeout."), getSelf());
-					} else {
-						sender.tell(new BuySellResponse(false, null, "Error during approval. " + t.getMessage()),
-								getSelf());
-					}
-				} else {
-					if (b) {
-						executeBuy(request, sender);
-					} else {
-						sender.tell(new BuySellResponse(false, null, "Transaction not approved."), getSelf());
-					}
-				}
-			}, getContext().dispatcher());
+			circuitBreaker.callWithCircuitBreakerCS(() -> approvalService.approveAsync(request.code, request.size)).whenComplete((b, t) -> {
+				self.tell(new ApprovalResult(request, sender, null != b && b, t), self);
+			});
 		} else {
 			executeBuy(request, getSender());
 		}
 	}
 
 	/**
-	 * When approved does the buy.s
+	 * Handles the approval result on the actor thread.
+	 */
+	private void approvalResult(ApprovalResult result) {
+		Throwable t = result.failure;
+		if (null != t) {
+			if (t instanceof TimeoutException) {
+				result.sender.tell(new BuySellResponse(false, null, "Approval resulted in timeout."), getSelf());
+			} else {
+				result.sender.tell(new BuySellResponse(false, null, "Error during approval. " + t.getMessage()),
+						getSelf());
+			}
+		} else {
+			if (result.approved) {
+				executeBuy(result.request, result.sender);
+			} else {
+				result.sender.tell(new BuySellResponse(false, null, "Transaction not approved."), getSelf());
+			}
+		}
+	}
+
+	/**
+	 * When approved does the buy.
 	 */
 	private void executeBuy(BuyRequest request, ActorRef sender) {
-		StockInfo stockInfo = codeToStock.get(request.code);
+		StockInfo stockInfo = getStock(request.code);
 		double cost = stockInfo.price * request.size;
-		if (cost > balanceState.getTotal()) {
-			getSender().tell(new BuySellResponse(false, null, "Insufficient balance."), getSelf());
+		if (cost > balanceState.getTotal() + unpersistedBalance) {
+			sender.tell(new BuySellResponse(false, null, "Insufficient balance."), getSelf());
 			return;
 		}
 
-		BalanceUpdateEvent balanceUpdateEvent = new BalanceUpdateEvent(-cost);
-		persist(balanceUpdateEvent, e -> {
-			balanceState.update(e);
-			stockInfo.holding += request.size;
-			sender.tell(new BuySellResponse(true, stockInfo), getSelf());
-		});
+		stockInfo.holding += request.size;
+		exposure.add(cost);
+		addPendingTrade(new BalanceUpdateEvent(-cost, request.code, request.size), stockInfo, sender);
 	}
 
 	/**
 	 * Executes buy request.
 	 */
 	private void sellRequest(SellRequest request) {
-		StockInfo stockInfo = codeToStock.get(request.code);
+		StockInfo stockInfo = getStock(request.code);
 		if (null == stockInfo) {
 			getSender().tell(new BuySellResponse(false, null, "Wrong stock code."), getSelf());
 			return;
@@ -210,29 +435,197 @@ public class StockServiceActor extends AbstractPersistentActor {
 		}
 
 		double cost = stockInfo.price * request.size;
-		BalanceUpdateEvent balanceUpdateEvent = new BalanceUpdateEvent(cost);
-		persist(balanceUpdateEvent, (BalanceUpdateEvent e) -> {
-			balanceState.update(balanceUpdateEvent);
-			stockInfo.holding -= request.size;
-			getSender().tell(new BuySellResponse(true, stockInfo), getSelf());
-			
-			// optionally save snapshot
-			// saveSnapshot(balanceState);
+		stockInfo.holding -= request.size;
+		exposure.add(-cost);
+		addPendingTrade(new BalanceUpdateEvent(cost, request.code, -request.size), stockInfo, getSender());
+	}
+
+	/**
+	 * Executes the batch of trades. Buys that need approval are approved in
+	 * one round with circuit breaker, result is sent to self.
+	 */
+	private void tradeBatchRequest(TradeBatchRequest request) {
+		TradeBatchExecution execution = new TradeBatchExecution(request.batch, universe);
+		for (int i = 0; i < execution.size(); i++) {
+			if (!execution.isRejected(i) && null == stocks[execution.getId(i)]) {
+				execution.reject(i, "Wrong stock code.");
+			}
+		}
+
+		final ActorRef sender = getSender();
+		final ActorRef self = getSelf();
+		execution.approve(r -> circuitBreaker.callWithCircuitBreakerCS(() -> approvalService.approveBatch(r)), approveThreshold)
+				.thenAccept(e -> self.tell(new BatchApprovalResult(e, sender), self));
+	}
+
+	/**
+	 * Checks and executes the approved batch of trades, trades are added to
+	 * the next persist batch and the response is sent once all are persisted.
+	 */
+	private void batchApprovalResult(BatchApprovalResult result) {
+		TradeBatchExecution execution = result.execution;
+		PendingBatch batch = new PendingBatch(execution, result.sender);
+		if (execution.check(balanceState.getTotal() + unpersistedBalance, id -> stocks[id].price, id -> stocks[id].holding)) {
+			for (int i = 0; i < execution.size(); i++) {
+				if (execution.isRejected(i)) {
+					continue;
+				}
+
+				Order order = execution.getOrder(i);
+				StockInfo stockInfo = stocks[execution.getId(i)];
+				int size = order.isBuy() ? order.size : -order.size;
+				double balanceUpdate = order.isBuy() ? -execution.getCost(i) : execution.getCost(i);
+				stockInfo.holding += size;
+				exposure.add(-balanceUpdate);
+				execution.executed(i, stockInfo);
+				batch.outstanding++;
+				addPendingTrade(new PendingTrade(new BalanceUpdateEvent(balanceUpdate, order.code, size), stockInfo, null, batch));
+			}
+		}
+
+		if (0 == batch.outstanding) {
+			result.sender.tell(execution.toResponse(), getSelf());
+		}
+	}
+
+	/**
+	 * Reserves the balance and holding of the trade and adds it to the next
+	 * batch.
+	 */
+	private void addPendingTrade(BalanceUpdateEvent event, StockInfo stockInfo, ActorRef sender) {
+		addPendingTrade(new PendingTrade(event, stockInfo, sender, null));
+	}
+
+	/**
+	 * Adds the trade to the next batch. First trade of the batch sends the
+	 * message to persist the batch, thus all trades already in the mailbox end
+	 * up in the same batch.
+	 */
+	private void addPendingTrade(PendingTrade trade) {
+		if (pendingTrades.isEmpty()) {
+			getSelf().tell("persist", getSelf());
+		}
+		pendingTrades.add(trade);
+		unpersistedBalance += trade.event.getUpdate();
+		responseCache.invalidate();
+	}
+
+	/**
+	 * Persists all pending trades with one journal write. Persisting is async,
+	 * trades coming in meanwhile are checked against the reserved balance and
+	 * holdings and go to the next batch.
+	 */
+	private void persistPending() {
+		if (pendingTrades.isEmpty() || snapshotRequested) {
+			return;
+		}
+
+		List<PendingTrade> batch = pendingTrades;
+		pendingTrades = new ArrayList<>();
+		List<BalanceUpdateEvent> events = new ArrayList<>(batch.size());
+		for (PendingTrade trade : batch) {
+			events.add(trade.event);
+		}
+
+		Iterator<PendingTrade> trades = batch.iterator();
+		persistingEvents += events.size();
+		persistAllAsync(events, e -> {
+			PendingTrade trade = trades.next();
+			balanceState.update(e);
+			unpersistedBalance -= e.getUpdate();
+			responseCache.invalidate();
+			if (null != trade.batch) {
+				trade.batch.persisted(getSelf());
+			} else {
+				trade.sender.tell(new BuySellResponse(true, trade.stockInfo), getSelf());
+			}
+			eventPersisted();
 		});
 	}
 	
+	/**
+	 * @return Stock with the code or <code>null</code> if code is not known or
+	 *         stock is not yet priced.
+	 */
+	private StockInfo getStock(String code) {
+		int id = universe.id(code);
+		return id < 0 ? null : stocks[id];
+	}
+
 	/**
 	 * Updates price of a single stock.
 	 */
 	private void priceUpdate(PriceUpdate update) {
 		String code = update.code;
-		StockInfo stockPrice = codeToStock.get(code);
+		int id = universe.id(code);
+		if (id < 0) {
+			return;
+		}
+		StockInfo stockPrice = stocks[id];
 		if (null != stockPrice) {
 			stockPrice.change = Util.getChangePercentage(stockPrice.startingPrice, update.price);
+			exposure.add((update.price - stockPrice.price) * stockPrice.holding);
 			stockPrice.price = update.price;
 		} else {
 			stockPrice = new StockInfo(code, update.price);
-			codeToStock.put(code, stockPrice);
+			stockPrice.holding = balanceState.getHolding(code);
+			exposure.add(update.price * stockPrice.holding);
+			stocks[id] = stockPrice;
+		}
+		responseCache.invalidate();
+		priceStream.publish(update);
+	}
+
+	/**
+	 * Trade waiting to be persisted.
+	 */
+	private static class PendingTrade {
+
+		private final BalanceUpdateEvent event;
+
+		private final StockInfo stockInfo;
+
+		private final ActorRef sender;
+
+		/**
+		 * Batch the trade belongs to, <code>null</code> for single trades.
+		 */
+		private final PendingBatch batch;
+
+		private PendingTrade(BalanceUpdateEvent event, StockInfo stockInfo, ActorRef sender, PendingBatch batch) {
+			this.event = event;
+			this.stockInfo = stockInfo;
+			this.sender = sender;
+			this.batch = batch;
+		}
+	}
+
+	/**
+	 * Batch of trades waiting for all its trades to be persisted.
+	 */
+	private static class PendingBatch {
+
+		private final TradeBatchExecution execution;
+
+		private final ActorRef sender;
+
+		/**
+		 * Trades of the batch not yet persisted.
+		 */
+		private int outstanding;
+
+		private PendingBatch(TradeBatchExecution execution, ActorRef sender) {
+			this.execution = execution;
+			this.sender = sender;
+		}
+
+		/**
+		 * Counts the persisted trade and replies once all are persisted.
+		 */
+		private void persisted(ActorRef self) {
+			if (0 == --outstanding) {
+				sender.tell(execution.toResponse(), self);
+			}
 		}
 	}
 
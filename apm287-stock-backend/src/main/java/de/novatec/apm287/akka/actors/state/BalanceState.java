@@ -1,6 +1,8 @@
 package de.novatec.apm287.akka.actors.state;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 public class BalanceState implements Serializable {
 
@@ -8,19 +10,44 @@ public class BalanceState implements Serializable {
 	
 	private double total;
 
+	/**
+	 * Holding per stock code, can be <code>null</code> in snapshots saved before
+	 * holdings were persisted.
+	 */
+	private Map<String, Integer> holdings;
+
 	public BalanceState(double initial) {
-		this.total = initial;
+		this(initial, new HashMap<>());
+	}
+
+	public BalanceState(double total, Map<String, Integer> holdings) {
+		this.total = total;
+		this.holdings = holdings;
 	}
 
 	public BalanceState copy() {
-		return new BalanceState(total);
+		return new BalanceState(total, new HashMap<>(getHoldings()));
 	}
 
 	public void update(BalanceUpdateEvent event) {
 		total += event.getUpdate();
+		if (null != event.getCode()) {
+			getHoldings().merge(event.getCode(), event.getHoldingUpdate(), Integer::sum);
+		}
 	}
 
 	public double getTotal() {
 		return total;
 	}
-}
\ No newline at end of file
+
+	public int getHolding(String code) {
+		return getHoldings().getOrDefault(code, 0);
+	}
+
+	public Map<String, Integer> getHoldings() {
+		if (null == holdings) {
+			holdings = new HashMap<>();
+		}
+		return holdings;
+	}
+}
@@ -11,11 +11,32 @@ public class BalanceUpdateEvent implements Serializable {
 	 */
 	private final double update;
 
-	public BalanceUpdateEvent(double update) {
+	/**
+	 * Code of the stock bought or sold, <code>null</code> in events persisted
+	 * before holdings were persisted.
+	 */
+	private final String code;
+
+	/**
+	 * How much holding of the stock is updated.
+	 */
+	private final int holdingUpdate;
+
+	public BalanceUpdateEvent(double update, String code, int holdingUpdate) {
 		this.update = update;
+		this.code = code;
+		this.holdingUpdate = holdingUpdate;
 	}
 
 	public double getUpdate() {
 		return update;
 	}
-}
\ No newline at end of file
+
+	public String getCode() {
+		return code;
+	}
+
+	public int getHoldingUpdate() {
+		return holdingUpdate;
+	}
+}
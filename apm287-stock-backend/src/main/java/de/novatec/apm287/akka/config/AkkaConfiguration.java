@@ -5,25 +5,28 @@ import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PreDestroy;
 
-import org.apache.commons.lang3.RandomStringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+
+import com.typesafe.config.Config;
 
-import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.pattern.CircuitBreaker;
 import akka.stream.ActorMaterializer;
-import akka.stream.Materializer;
-import akka.stream.ThrottleMode;
-import akka.stream.javadsl.Flow;
-import akka.stream.javadsl.Sink;
-import akka.stream.scaladsl.Source;
 import de.novatec.apm287.akka.actors.PriceGeneratorActor;
 import de.novatec.apm287.akka.actors.StockServiceActor;
-import de.novatec.apm287.akka.stream.PriceUpdateGraphStage;
-import de.novatec.apm287.common.PriceUpdate;
-import de.novatec.apm287.common.service.ApprovalService;
+import de.novatec.apm287.akka.stream.PriceFeed;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import scala.concurrent.duration.Duration;
 
 /**
@@ -37,37 +40,72 @@ public class AkkaConfiguration {
 
 	private ActorSystem system;
 
-	@SuppressWarnings("unused")
+	/**
+	 * Price feed when prices are streamed.
+	 */
+	private PriceFeed priceFeed;
+
 	@Autowired
+	@Lazy
 	@Bean(name = "stock-service-actor")
-	public ActorRef getStockServiceActor(ApprovalService approvalService) {
+	public ActorRef getStockServiceActor(StockUniverse universe, IApprovalService approvalService,
+			PriceStream priceStream, StockResponseCache responseCache, MeterRegistry registry) {
 		// init system
 		system = ActorSystem.create("akka-stock-exchange");
 		
 
-		// generate some codes
-		String[] codes = new String[5];
-		for (int i = 0; i < codes.length; i++) {
-			codes[i] = RandomStringUtils.randomAlphabetic(3).toUpperCase();
-		}
+		String[] codes = universe.codes();
 
-		final ActorRef stockServiceActor = system.actorOf(StockServiceActor.props(Optional.empty(), approvalService), "stockServiceActor");
-		final ActorRef priceGeneratorActor = system.actorOf(PriceGeneratorActor.props(stockServiceActor, codes), "priceGeneratorActor");
+		// created outside of the actor, so it is kept when the actor restarts
+		CircuitBreaker circuitBreaker = new CircuitBreaker(system.dispatcher(), system.scheduler(), 5,
+				Duration.create(50, TimeUnit.MILLISECONDS), Duration.create(1, TimeUnit.MINUTES));
+		Timer recoveryTimer = Timer.builder("apm287.akka.recovery").tags("actor", "stockServiceActor")
+				.description("time to replay the snapshot and events on each (re)start").register(registry);
 
-		// streaming approach
-		Materializer mat = ActorMaterializer.create(system);
-		PriceUpdateGraphStage priceUpdateGraphStage = new PriceUpdateGraphStage();
-		final Source<PriceUpdate, NotUsed> source = Source.fromGraph(priceUpdateGraphStage);
-		Flow<PriceUpdate, PriceUpdate, NotUsed> flow = Flow.of(PriceUpdate.class).throttle(1,
-				Duration.create(100, TimeUnit.MILLISECONDS), 1, ThrottleMode.shaping());
-		Sink<PriceUpdate, NotUsed> sink = Sink.actorRef(stockServiceActor, "completed");
-		// source.via(flow).runWith(sink, mat);
+		final ActorRef stockServiceActor = system.actorOf(StockServiceActor.props(Optional.empty(), universe, approvalService, priceStream, responseCache, circuitBreaker, recoveryTimer)
+				.withMailbox("apm287.akka.metered-mailbox"), "stockServiceActor");
+		Gauge.builder("apm287.akka.mailbox.size", stockServiceActor, MeteredMailbox::size).tags("actor", "stockServiceActor")
+				.register(registry);
+		Gauge.builder("apm287.akka.circuitBreaker.state", circuitBreaker, AkkaConfiguration::getState)
+				.description("0 closed, 1 half-open, 2 open").register(registry);
+
+		Config config = system.settings().config();
+		if ("stream".equals(config.getString("apm287.akka.prices.mode"))) {
+			// streaming approach
+			priceFeed = new PriceFeed();
+			priceFeed.start(ActorMaterializer.create(system), stockServiceActor, codes, config.getInt("apm287.akka.prices.rate"));
+			FunctionCounter.builder("apm287.akka.prices.emitted", priceFeed, PriceFeed::getEmittedCount).register(registry);
+			FunctionCounter.builder("apm287.akka.prices.conflated", priceFeed, PriceFeed::getConflatedCount).register(registry);
+			FunctionCounter.builder("apm287.akka.prices.batches", priceFeed, PriceFeed::getBatchCount).register(registry);
+		} else {
+			system.actorOf(PriceGeneratorActor.props(stockServiceActor, codes), "priceGeneratorActor");
+		}
 
 		return stockServiceActor;
 	}
 
+	/**
+	 * @return State of the circuit breaker, <code>0</code> closed,
+	 *         <code>1</code> half-open and <code>2</code> open.
+	 */
+	private static double getState(CircuitBreaker circuitBreaker) {
+		if (circuitBreaker.isOpen()) {
+			return 2;
+		}
+		return circuitBreaker.isHalfOpen() ? 1 : 0;
+	}
+
+	/**
+	 * @return Price feed or <code>null</code> when prices are not streamed.
+	 */
+	public PriceFeed getPriceFeed() {
+		return priceFeed;
+	}
+
 	@PreDestroy
 	public void terminate() {
-		system.terminate();
+		if (null != system) {
+			system.terminate();
+		}
 	}
 }
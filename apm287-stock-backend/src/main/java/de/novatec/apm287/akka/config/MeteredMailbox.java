@@ -0,0 +1,54 @@
+package de.novatec.apm287.akka.config;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedDequeBasedMailbox;
+import akka.dispatch.UnboundedDequeBasedMessageQueue;
+import scala.Option;
+
+/**
+ * Unbounded deque based mailbox (as needed by the persistent actors) that
+ * keeps the queue of each actor, so the amount of messages waiting can be
+ * read with {@link #size(ActorRef)}. The queue is a linked blocking deque,
+ * thus reading the size does not walk the messages.
+ */
+public class MeteredMailbox implements MailboxType, ProducesMessageQueue<UnboundedDequeBasedMessageQueue> {
+
+	/**
+	 * Queue of each actor using this mailbox.
+	 */
+	private static final Map<ActorRef, MessageQueue> QUEUES = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final UnboundedDequeBasedMailbox mailbox = new UnboundedDequeBasedMailbox();
+
+	public MeteredMailbox(ActorSystem.Settings settings, Config config) {
+	}
+
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+		MessageQueue queue = mailbox.create(owner, system);
+		if (owner.isDefined()) {
+			QUEUES.put(owner.get(), queue);
+		}
+		return queue;
+	}
+
+	/**
+	 * @return Amount of messages in the mailbox of the actor, <code>0</code> if
+	 *         the actor does not use this mailbox.
+	 */
+	public static int size(ActorRef actor) {
+		MessageQueue queue = QUEUES.get(actor);
+		return null == queue ? 0 : queue.numberOfMessages();
+	}
+
+}
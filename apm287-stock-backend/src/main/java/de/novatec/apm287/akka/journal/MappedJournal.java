@@ -0,0 +1,348 @@
+package de.novatec.apm287.akka.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+import com.typesafe.config.Config;
+
+import akka.dispatch.Futures;
+import akka.persistence.AtomicWrite;
+import akka.persistence.PersistentRepr;
+import akka.persistence.journal.japi.AsyncWriteJournal;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import de.novatec.apm287.common.journal.SegmentedLog;
+import scala.collection.JavaConverters;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.Future;
+
+/**
+ * Akka persistence journal plugin writing to the memory-mapped
+ * {@link SegmentedLog}, can be used instead of the LevelDB journal. Each
+ * atomic write is stored as one record, thus it is written completely or not
+ * at all. Deletes are stored as markers, the highest and deleted sequence
+ * numbers of each persistence id are kept in memory and rebuilt from the log
+ * on start.
+ * <p>
+ * The offsets of the records not deleted yet are indexed per persistence id,
+ * so replay reads only the records of the replayed messages. Segments holding
+ * deleted messages only are deleted, the sequence numbers of the persistence
+ * ids found in them are written again before. Thus with snapshots (and
+ * deleting the messages before them) both the log and the recovery time stay
+ * bounded.
+ */
+public class MappedJournal extends AsyncWriteJournal {
+
+	/**
+	 * Record holding messages of one atomic write.
+	 */
+	private static final byte MESSAGES = 1;
+
+	/**
+	 * Record marking messages as deleted.
+	 */
+	private static final byte DELETE = 2;
+
+	/**
+	 * Record restating the highest and deleted sequence numbers of a
+	 * persistence id, written before the segment holding its records is
+	 * deleted.
+	 */
+	private static final byte SEQUENCE_NUMBERS = 3;
+
+	/**
+	 * Log the messages are written to.
+	 */
+	private final SegmentedLog log;
+
+	/**
+	 * Highest and deleted sequence number per persistence id.
+	 */
+	private final Map<String, SequenceNumbers> sequenceNumbers = new ConcurrentHashMap<>();
+
+	/**
+	 * Per segment index the highest sequence number of the messages of each
+	 * persistence id in it, <code>0</code> for the markers.
+	 */
+	private final NavigableMap<Long, Map<String, Long>> segments = new ConcurrentSkipListMap<>();
+
+	private final Serialization serialization = SerializationExtension.get(context().system());
+
+	public MappedJournal(Config config) throws Exception {
+		log = new SegmentedLog(Paths.get(config.getString("dir")), (int) config.getBytes("segment-size").longValue(),
+				"mapped-journal");
+
+		log.scan((buffer, offset) -> {
+			byte type = buffer.get();
+			String persistenceId = readString(buffer);
+			SequenceNumbers numbers = getSequenceNumbers(persistenceId);
+			if (MESSAGES == type) {
+				long[] highest = { 0 };
+				readMessages(buffer, (sequenceNr, bytes) -> highest[0] = Math.max(highest[0], sequenceNr));
+				numbers.written(highest[0], offset);
+				indexed(persistenceId, highest[0], offset);
+			} else {
+				if (SEQUENCE_NUMBERS == type) {
+					numbers.written(buffer.getLong(), -1);
+				}
+				numbers.deleted(buffer.getLong());
+				indexed(persistenceId, 0, offset);
+			}
+		});
+	}
+
+	@Override
+	public void postStop() {
+		log.close();
+	}
+
+	@Override
+	public Future<Iterable<Optional<Exception>>> doAsyncWriteMessages(Iterable<AtomicWrite> messages) {
+		List<Optional<Exception>> results = new ArrayList<>();
+		List<CompletableFuture<Void>> writes = new ArrayList<>();
+		for (AtomicWrite write : messages) {
+			String persistenceId = write.persistenceId();
+			SequenceNumbers numbers = getSequenceNumbers(persistenceId);
+			long highest = write.highestSequenceNr();
+			try {
+				writes.add(log.append(toRecord(write), offset -> {
+					numbers.written(highest, offset);
+					indexed(persistenceId, highest, offset);
+				}));
+			} catch (Exception e) {
+				// rejected (can not be serialized or too big for a segment), not written
+				results.add(Optional.of(e));
+				continue;
+			}
+			results.add(Optional.empty());
+		}
+
+		CompletableFuture<Iterable<Optional<Exception>>> result = CompletableFuture
+				.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).thenApply(v -> results);
+		return FutureConverters.toScala(result);
+	}
+
+	@Override
+	public Future<Void> doAsyncDeleteMessagesTo(String persistenceId, long toSequenceNr) {
+		SequenceNumbers numbers = getSequenceNumbers(persistenceId);
+		// messages not written yet can not be deleted
+		long deletedTo = Math.min(toSequenceNr, numbers.highest);
+		byte[] id = persistenceId.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + id.length + 8);
+		buffer.put(DELETE);
+		buffer.putShort((short) id.length);
+		buffer.put(id);
+		buffer.putLong(deletedTo);
+
+		return FutureConverters.toScala(log.append(buffer.array(), offset -> indexed(persistenceId, 0, offset))
+				.thenRun(() -> {
+					numbers.deleted(deletedTo);
+					compact();
+				}));
+	}
+
+	@Override
+	public Future<Void> doAsyncReplayMessages(String persistenceId, long fromSequenceNr, long toSequenceNr, long max,
+			Consumer<PersistentRepr> replayCallback) {
+		SequenceNumbers numbers = getSequenceNumbers(persistenceId);
+		long from = Math.max(fromSequenceNr, numbers.deletedTo + 1);
+		return Futures.<Void> future(() -> {
+			// records with messages from the first replayed one to the last
+			List<Long> offsets = new ArrayList<>();
+			for (Map.Entry<Long, Long> record : numbers.records.tailMap(from).entrySet()) {
+				offsets.add(record.getValue());
+				if (record.getKey() >= toSequenceNr) {
+					break;
+				}
+			}
+
+			long[] replayed = { 0 };
+			log.read(offsets, buffer -> {
+				buffer.get();
+				readString(buffer);
+				readMessages(buffer, (sequenceNr, bytes) -> {
+					if (sequenceNr >= from && sequenceNr <= toSequenceNr && replayed[0] < max) {
+						replayed[0]++;
+						replayCallback.accept(serialization.deserialize(bytes, PersistentRepr.class).get());
+					}
+				});
+			});
+			return null;
+		}, context().dispatcher());
+	}
+
+	@Override
+	public Future<Long> doAsyncReadHighestSequenceNr(String persistenceId, long fromSequenceNr) {
+		return Futures.successful(getSequenceNumbers(persistenceId).highest);
+	}
+
+	/**
+	 * Adds the record to the segment it is written in.
+	 *
+	 * @param highest
+	 *            Highest sequence number of the messages in the record,
+	 *            <code>0</code> for the markers.
+	 */
+	private void indexed(String persistenceId, long highest, long offset) {
+		segments.computeIfAbsent(log.getSegment(offset), s -> new ConcurrentHashMap<>()).merge(persistenceId, highest,
+				Math::max);
+	}
+
+	/**
+	 * Deletes the segments holding only deleted messages and markers. The
+	 * sequence numbers of each persistence id found in them are written again
+	 * before, so they are kept after the restart.
+	 */
+	private synchronized void compact() {
+		List<Long> reclaimed = new ArrayList<>();
+		Set<String> persistenceIds = new HashSet<>();
+		if (segments.isEmpty()) {
+			return;
+		}
+		// the last segment is still written to
+		Iterator<Map.Entry<Long, Map<String, Long>>> iterator = segments.headMap(segments.lastKey()).entrySet()
+				.iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Long, Map<String, Long>> segment = iterator.next();
+			if (!isReclaimable(segment.getValue())) {
+				continue;
+			}
+			reclaimed.add(segment.getKey());
+			persistenceIds.addAll(segment.getValue().keySet());
+			iterator.remove();
+		}
+		if (reclaimed.isEmpty()) {
+			return;
+		}
+
+		List<CompletableFuture<Void>> writes = new ArrayList<>();
+		for (String persistenceId : persistenceIds) {
+			SequenceNumbers numbers = getSequenceNumbers(persistenceId);
+			byte[] id = persistenceId.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + id.length + 8 + 8);
+			buffer.put(SEQUENCE_NUMBERS);
+			buffer.putShort((short) id.length);
+			buffer.put(id);
+			buffer.putLong(numbers.highest);
+			buffer.putLong(numbers.deletedTo);
+			writes.add(log.append(buffer.array(), offset -> indexed(persistenceId, 0, offset)));
+		}
+		CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).thenRun(() -> {
+			for (long index : reclaimed) {
+				try {
+					log.delete(index);
+				} catch (Exception e) {
+					System.out.println("Deleting journal segment " + index + " failed " + e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return If all messages in the segment are deleted.
+	 */
+	private boolean isReclaimable(Map<String, Long> segment) {
+		for (Map.Entry<String, Long> highest : segment.entrySet()) {
+			if (highest.getValue() > getSequenceNumbers(highest.getKey()).deletedTo) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Serializes all messages of the write into one record.
+	 */
+	private byte[] toRecord(AtomicWrite write) {
+		List<PersistentRepr> payload = JavaConverters.seqAsJavaListConverter(write.payload()).asJava();
+		List<byte[]> serialized = new ArrayList<>(payload.size());
+		byte[] id = write.persistenceId().getBytes(StandardCharsets.UTF_8);
+		int size = 1 + 2 + id.length + 4;
+		for (PersistentRepr repr : payload) {
+			byte[] bytes = serialization.serialize(repr).get();
+			serialized.add(bytes);
+			size += 8 + 4 + bytes.length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put(MESSAGES);
+		buffer.putShort((short) id.length);
+		buffer.put(id);
+		buffer.putInt(payload.size());
+		for (int i = 0; i < payload.size(); i++) {
+			buffer.putLong(payload.get(i).sequenceNr());
+			buffer.putInt(serialized.get(i).length);
+			buffer.put(serialized.get(i));
+		}
+		return buffer.array();
+	}
+
+	private void readMessages(ByteBuffer buffer, MessageConsumer consumer) {
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			long sequenceNr = buffer.getLong();
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			consumer.accept(sequenceNr, bytes);
+		}
+	}
+
+	private String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private SequenceNumbers getSequenceNumbers(String persistenceId) {
+		return sequenceNumbers.computeIfAbsent(persistenceId, id -> new SequenceNumbers());
+	}
+
+	private interface MessageConsumer {
+
+		void accept(long sequenceNr, byte[] bytes);
+	}
+
+	private static class SequenceNumbers {
+
+		private volatile long highest;
+
+		private volatile long deletedTo;
+
+		/**
+		 * Offset of each record with messages not deleted yet, by the highest
+		 * sequence number in it.
+		 */
+		private final NavigableMap<Long, Long> records = new ConcurrentSkipListMap<>();
+
+		/**
+		 * @param offset
+		 *            Offset of the record with the messages, <code>-1</code>
+		 *            when only the sequence number is restated.
+		 */
+		synchronized void written(long sequenceNr, long offset) {
+			highest = Math.max(highest, sequenceNr);
+			if (offset >= 0 && sequenceNr > deletedTo) {
+				records.put(sequenceNr, offset);
+			}
+		}
+
+		synchronized void deleted(long sequenceNr) {
+			deletedTo = Math.max(deletedTo, sequenceNr);
+			records.headMap(deletedTo, true).clear();
+		}
+	}
+
+}
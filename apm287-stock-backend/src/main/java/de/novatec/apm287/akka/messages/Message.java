@@ -2,8 +2,12 @@ package de.novatec.apm287.akka.messages;
 
 import java.util.Collection;
 
+import akka.actor.ActorRef;
 import de.novatec.apm287.common.BalanceInfo;
+import de.novatec.apm287.common.PriceUpdate;
 import de.novatec.apm287.common.StockInfo;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatchExecution;
 
 /**
  * Messages used only between akka actors.
@@ -107,4 +111,44 @@ public class Message {
 
 	}
 
+	public static class ApprovalResult {
+		public BuyRequest request;
+		public ActorRef sender;
+		public boolean approved;
+		public Throwable failure;
+
+		public ApprovalResult(BuyRequest request, ActorRef sender, boolean approved, Throwable failure) {
+			this.request = request;
+			this.sender = sender;
+			this.approved = approved;
+			this.failure = failure;
+		}
+	}
+
+	public static class TradeBatchRequest {
+		public TradeBatch batch;
+
+		public TradeBatchRequest(TradeBatch batch) {
+			this.batch = batch;
+		}
+	}
+
+	public static class BatchApprovalResult {
+		public TradeBatchExecution execution;
+		public ActorRef sender;
+
+		public BatchApprovalResult(TradeBatchExecution execution, ActorRef sender) {
+			this.execution = execution;
+			this.sender = sender;
+		}
+	}
+
+	public static class PriceUpdates {
+		public Collection<PriceUpdate> updates;
+
+		public PriceUpdates(Collection<PriceUpdate> updates) {
+			this.updates = updates;
+		}
+	}
+
 }
@@ -0,0 +1,124 @@
+package de.novatec.apm287.akka.serialization;
+
+import java.io.NotSerializableException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import akka.serialization.SerializerWithStringManifest;
+import de.novatec.apm287.akka.actors.state.BalanceState;
+import de.novatec.apm287.akka.actors.state.BalanceUpdateEvent;
+
+/**
+ * Binary serializer for the balance events and snapshots. Manifest holds the
+ * type and the version of the format, so new versions can be added while
+ * still reading the old ones.
+ * <p>
+ * Event format is the balance update (8 bytes), stock code and holding update
+ * (4 bytes). Snapshot format is the total (8 bytes), amount of holdings (4
+ * bytes) and for each holding the stock code and the holding (4 bytes). Stock
+ * code is written as length (2 bytes, -1 for <code>null</code>) and UTF-8
+ * bytes.
+ */
+public class BalanceSerializer extends SerializerWithStringManifest {
+
+	/**
+	 * Balance update event, version 1.
+	 */
+	static final String EVENT_V1 = "E1";
+
+	/**
+	 * Balance state snapshot, version 1.
+	 */
+	static final String STATE_V1 = "S1";
+
+	@Override
+	public int identifier() {
+		return 287_001;
+	}
+
+	@Override
+	public String manifest(Object o) {
+		if (o instanceof BalanceUpdateEvent) {
+			return EVENT_V1;
+		} else if (o instanceof BalanceState) {
+			return STATE_V1;
+		}
+		throw new IllegalArgumentException("Can not serialize object of type " + o.getClass());
+	}
+
+	@Override
+	public byte[] toBinary(Object o) {
+		if (o instanceof BalanceUpdateEvent) {
+			BalanceUpdateEvent event = (BalanceUpdateEvent) o;
+			byte[] code = getBytes(event.getCode());
+			ByteBuffer buffer = ByteBuffer.allocate(8 + 2 + code.length + 4);
+			buffer.putDouble(event.getUpdate());
+			putCode(buffer, event.getCode(), code);
+			buffer.putInt(event.getHoldingUpdate());
+			return buffer.array();
+		} else if (o instanceof BalanceState) {
+			BalanceState state = (BalanceState) o;
+			Map<String, Integer> holdings = state.getHoldings();
+			Map<String, byte[]> codes = new HashMap<>();
+			int size = 8 + 4;
+			for (String code : holdings.keySet()) {
+				byte[] bytes = getBytes(code);
+				codes.put(code, bytes);
+				size += 2 + bytes.length + 4;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			buffer.putDouble(state.getTotal());
+			buffer.putInt(holdings.size());
+			for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
+				putCode(buffer, entry.getKey(), codes.get(entry.getKey()));
+				buffer.putInt(entry.getValue());
+			}
+			return buffer.array();
+		}
+		throw new IllegalArgumentException("Can not serialize object of type " + o.getClass());
+	}
+
+	@Override
+	public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		switch (manifest) {
+		case EVENT_V1:
+			double update = buffer.getDouble();
+			String code = getCode(buffer);
+			int holdingUpdate = buffer.getInt();
+			return new BalanceUpdateEvent(update, code, holdingUpdate);
+		case STATE_V1:
+			double total = buffer.getDouble();
+			int count = buffer.getInt();
+			Map<String, Integer> holdings = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				holdings.put(getCode(buffer), buffer.getInt());
+			}
+			return new BalanceState(total, holdings);
+		default:
+			throw new NotSerializableException("Unknown manifest " + manifest);
+		}
+	}
+
+	private static byte[] getBytes(String code) {
+		return null == code ? new byte[0] : code.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void putCode(ByteBuffer buffer, String code, byte[] bytes) {
+		buffer.putShort(null == code ? -1 : (short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getCode(ByteBuffer buffer) {
+		short length = buffer.getShort();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
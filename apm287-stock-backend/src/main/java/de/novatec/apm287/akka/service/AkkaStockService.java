@@ -14,6 +14,8 @@ import de.novatec.apm287.akka.messages.Message.BalanceRequest;
 import de.novatec.apm287.akka.messages.Message.BuyRequest;
 import de.novatec.apm287.akka.messages.Message.OverviewRequest;
 import de.novatec.apm287.akka.messages.Message.SellRequest;
+import de.novatec.apm287.akka.messages.Message.TradeBatchRequest;
+import de.novatec.apm287.common.TradeBatch;
 import de.novatec.apm287.common.service.IStockService;
 
 public class AkkaStockService implements IStockService {
@@ -46,4 +48,10 @@ public class AkkaStockService implements IStockService {
 		return ask.toCompletableFuture();
 	}
 
+	@Override
+	public CompletableFuture<Object> trades(TradeBatch batch) {
+		CompletionStage<Object> ask = PatternsCS.ask(stockServiceActor, new TradeBatchRequest(batch), Timeout.apply(1000, TimeUnit.MILLISECONDS));
+		return ask.toCompletableFuture();
+	}
+
 }
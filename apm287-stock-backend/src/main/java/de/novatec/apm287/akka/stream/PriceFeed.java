@@ -0,0 +1,118 @@
+package de.novatec.apm287.akka.stream;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import akka.actor.ActorRef;
+import akka.actor.Status;
+import akka.stream.Materializer;
+import akka.stream.ThrottleMode;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import de.novatec.apm287.akka.messages.Message.PriceUpdates;
+import de.novatec.apm287.common.PriceUpdate;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Streams price updates from the {@link PriceUpdateGraphStage} to the stock
+ * service actor. Updates are throttled to the given rate and sent in batches
+ * with back-pressure, the actor acknowledges each batch. While the actor is
+ * busy the updates are conflated to the latest price per code, thus the actor
+ * never falls behind more than one batch.
+ */
+public class PriceFeed {
+
+	/**
+	 * Message the stream starts with, must be acknowledged.
+	 */
+	public static final String INIT = "stream-init";
+
+	/**
+	 * Acknowledgment of the init message and each batch.
+	 */
+	public static final String ACK = "stream-ack";
+
+	/**
+	 * Message sent when stream completes.
+	 */
+	public static final String COMPLETED = "stream-completed";
+
+	/**
+	 * Updates emitted by the source.
+	 */
+	private final AtomicLong emitted = new AtomicLong();
+
+	/**
+	 * Updates replaced by the newer price of the same code before delivery.
+	 */
+	private final AtomicLong conflated = new AtomicLong();
+
+	/**
+	 * Batches delivered to the actor.
+	 */
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * Starts the feed.
+	 * 
+	 * @param target
+	 *            Actor to send batches to.
+	 * @param codes
+	 *            Codes to generate prices for.
+	 * @param rate
+	 *            Updates per second.
+	 */
+	public void start(Materializer materializer, ActorRef target, String[] codes, int rate) {
+		// burst of 100ms worth of updates, with smaller bursts the throttle timer limits high rates
+		Source.fromGraph(new PriceUpdateGraphStage(codes))
+				.throttle(rate, Duration.create(1, TimeUnit.SECONDS), Math.max(1, rate / 10), ThrottleMode.shaping())
+				.map(update -> {
+					emitted.incrementAndGet();
+					return update;
+				})
+				.conflateWithSeed(this::newBatch, this::addToBatch)
+				.map(batch -> {
+					batches.incrementAndGet();
+					return new PriceUpdates(batch.values());
+				})
+				.runWith(Sink.actorRefWithAck(target, INIT, ACK, COMPLETED, Status.Failure::new), materializer);
+	}
+
+	private Map<String, PriceUpdate> newBatch(PriceUpdate update) {
+		Map<String, PriceUpdate> batch = new LinkedHashMap<>();
+		batch.put(update.code, update);
+		return batch;
+	}
+
+	private Map<String, PriceUpdate> addToBatch(Map<String, PriceUpdate> batch, PriceUpdate update) {
+		if (null != batch.put(update.code, update)) {
+			conflated.incrementAndGet();
+		}
+		return batch;
+	}
+
+	/**
+	 * @return Amount of updates emitted by the source.
+	 */
+	public long getEmittedCount() {
+		return emitted.get();
+	}
+
+	/**
+	 * @return Amount of updates replaced by the newer price of the same code.
+	 */
+	public long getConflatedCount() {
+		return conflated.get();
+	}
+
+	/**
+	 * @return Amount of batches delivered to the actor.
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+}
@@ -1,6 +1,5 @@
 package de.novatec.apm287.akka.stream;
 
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
 
 import akka.stream.Attributes;
@@ -18,6 +17,19 @@ public class PriceUpdateGraphStage extends GraphStage<SourceShape<PriceUpdate>>
 	
 	private final SourceShape<PriceUpdate> shape = SourceShape.of(out);
 
+	/**
+	 * Codes to generate prices for.
+	 */
+	private final String[] codes;
+
+	/**
+	 * @param codes
+	 *            Codes to generate prices for.
+	 */
+	public PriceUpdateGraphStage(String... codes) {
+		this.codes = codes;
+	}
+
 	@Override
 	public SourceShape<PriceUpdate> shape() {
 		return shape;
@@ -28,20 +40,18 @@ public class PriceUpdateGraphStage extends GraphStage<SourceShape<PriceUpdate>>
 		return new GraphStageLogic(shape()) {
 			
 			/**
-			 * Codes to generate prices for.
+			 * Price for each code.
 			 */
-			private String[] codes;
+			private double[] prices;
 
 			/**
-			 * Price for each code.
+			 * Amount of codes that got the starting price.
 			 */
-			private double[] prices;
+			private int started;
 			
 			{
-				codes = new String[5];
 				prices = new double[codes.length];
 				for (int i = 0; i < codes.length; i++) {
-					codes[i] = RandomStringUtils.randomAlphabetic(3).toUpperCase();
 					prices[i] = 100.0d;
 				}
 				
@@ -50,6 +60,13 @@ public class PriceUpdateGraphStage extends GraphStage<SourceShape<PriceUpdate>>
 					
 					@Override
 					public void onPull() throws Exception {
+						// first starting price of each code, then random updates
+						if (started < codes.length) {
+							push(out, new PriceUpdate(codes[started], prices[started]));
+							started++;
+							return;
+						}
+
 						int i = RandomUtils.nextInt(0, codes.length);
 						prices[i] = Util.getUpdatedPrice(prices[i]);
 						PriceUpdate priceUpdate = new PriceUpdate(codes[i], prices[i]);
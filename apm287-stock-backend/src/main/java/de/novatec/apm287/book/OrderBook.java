@@ -0,0 +1,437 @@
+package de.novatec.apm287.book;
+
+import java.util.Arrays;
+
+/**
+ * Limit order book of a single stock, matching orders on price-time
+ * priority. Incoming order is matched against the best opposite levels, and
+ * within a level against the oldest orders first; the rest of a limit order
+ * is added to the book.
+ * <p>
+ * Book keeps everything in primitive arrays: orders are slots of a pool
+ * linked into FIFO queues per price level, levels of each side are sorted
+ * with the best level at the end, so matching at the top of the book does not
+ * move any data and does not allocate. Order id encodes the stock id and the
+ * slot, thus cancel finds the order without any lookup table. Freed slots are
+ * reused right away, so the id also holds the sequence of the order in the
+ * book: an id of a removed order matches a later order in the same slot only
+ * after 2^26 more orders in the book.
+ * <p>
+ * Not thread safe, callers must synchronize on the book.
+ */
+public class OrderBook {
+
+	/**
+	 * Bits of the order id holding the stock id, enough for the universe of
+	 * 100k stocks.
+	 */
+	public static final int STOCK_BITS = 17;
+
+	/**
+	 * Bits of the order id holding the slot, up to 1M orders in one book.
+	 */
+	public static final int SLOT_BITS = 20;
+
+	private static final int STOCK_MASK = (1 << STOCK_BITS) - 1;
+
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+	/**
+	 * Remaining 26 bits of the positive order id hold the sequence.
+	 */
+	private static final long SEQUENCE_MASK = (1L << (63 - STOCK_BITS - SLOT_BITS)) - 1;
+
+	private static final int NONE = -1;
+
+	/**
+	 * Listener for the fills of an order.
+	 */
+	@FunctionalInterface
+	public interface FillListener {
+
+		/**
+		 * @param makerOrderId
+		 *            Id of the order in the book that was matched.
+		 * @param price
+		 *            Price of the fill in ticks, always the price of the order
+		 *            in the book.
+		 * @param size
+		 *            Filled size.
+		 */
+		void fill(long makerOrderId, long price, int size);
+
+	}
+
+	/**
+	 * Stock id of the book.
+	 */
+	private final int stockId;
+
+	/**
+	 * Incremented with each order, part of the order id.
+	 */
+	private long sequence;
+
+	/**
+	 * Order id of each slot, <code>0</code> if slot is free.
+	 */
+	private long[] orderIds;
+
+	/**
+	 * Price of the order in each slot.
+	 */
+	private long[] orderPrices;
+
+	/**
+	 * Remaining size of the order in each slot.
+	 */
+	private int[] orderSizes;
+
+	/**
+	 * If the order in each slot is buy.
+	 */
+	private boolean[] orderBuys;
+
+	/**
+	 * Next slot in the level queue, or in the free list for free slots.
+	 */
+	private int[] next;
+
+	/**
+	 * Previous slot in the level queue.
+	 */
+	private int[] prev;
+
+	/**
+	 * First free slot.
+	 */
+	private int free = NONE;
+
+	/**
+	 * Slots taken so far, slots above are not used yet.
+	 */
+	private int used;
+
+	/**
+	 * Orders in the book.
+	 */
+	private int orderCount;
+
+	private final Side bids = new Side(true);
+
+	private final Side asks = new Side(false);
+
+	/**
+	 * @param stockId
+	 *            Stock id of the book, must fit in {@link #STOCK_BITS}.
+	 * @param capacity
+	 *            Initial amount of order slots, book grows when needed.
+	 */
+	public OrderBook(int stockId, int capacity) {
+		if (stockId < 0 || stockId > STOCK_MASK) {
+			throw new IllegalArgumentException("Stock id " + stockId + " out of range.");
+		}
+		this.stockId = stockId;
+		capacity = Math.max(1, Math.min(capacity, SLOT_MASK + 1));
+		orderIds = new long[capacity];
+		orderPrices = new long[capacity];
+		orderSizes = new int[capacity];
+		orderBuys = new boolean[capacity];
+		next = new int[capacity];
+		prev = new int[capacity];
+	}
+
+	/**
+	 * @return Stock id encoded in the order id.
+	 */
+	public static int getStockId(long orderId) {
+		return (int) (orderId & STOCK_MASK);
+	}
+
+	/**
+	 * Matches the limit order against the opposite side of the book and adds
+	 * the rest to the book.
+	 *
+	 * @param buy
+	 *            If order is buy.
+	 * @param price
+	 *            Limit price in ticks.
+	 * @param size
+	 *            Order size, must be positive.
+	 * @param listener
+	 *            Gets each fill of the order.
+	 * @return Id of the order, or <code>-1</code> if the book is full.
+	 */
+	public long submit(boolean buy, long price, int size, FillListener listener) {
+		int slot = allocate();
+		if (NONE == slot) {
+			return -1;
+		}
+		sequence = Math.max(1, (sequence + 1) & SEQUENCE_MASK);
+		long orderId = (sequence << (STOCK_BITS + SLOT_BITS)) | ((long) slot << STOCK_BITS) | stockId;
+
+		int remaining = match(buy ? asks : bids, price, size, listener);
+		if (0 == remaining) {
+			release(slot);
+			return orderId;
+		}
+
+		orderIds[slot] = orderId;
+		orderPrices[slot] = price;
+		orderSizes[slot] = remaining;
+		orderBuys[slot] = buy;
+		(buy ? bids : asks).append(price, slot, remaining);
+		orderCount++;
+		return orderId;
+	}
+
+	/**
+	 * Removes the order from the book.
+	 *
+	 * @return Cancelled size, <code>0</code> if the order is not in the book.
+	 */
+	public int cancel(long orderId) {
+		int slot = slot(orderId);
+		if (NONE == slot) {
+			return 0;
+		}
+
+		int size = orderSizes[slot];
+		(orderBuys[slot] ? bids : asks).unlink(orderPrices[slot], slot, size);
+		release(slot);
+		orderCount--;
+		return size;
+	}
+
+	/**
+	 * @return Limit price in ticks of the order, <code>0</code> if the order
+	 *         is not in the book.
+	 */
+	public long getPrice(long orderId) {
+		int slot = slot(orderId);
+		return NONE == slot ? 0 : orderPrices[slot];
+	}
+
+	/**
+	 * @return If the order is buy, <code>false</code> if the order is not in
+	 *         the book.
+	 */
+	public boolean isBuy(long orderId) {
+		int slot = slot(orderId);
+		return NONE != slot && orderBuys[slot];
+	}
+
+	/**
+	 * @return Amount of price levels on the side.
+	 */
+	public int getLevelCount(boolean buy) {
+		return (buy ? bids : asks).count;
+	}
+
+	/**
+	 * @return Price in ticks of the level, <code>0</code> is the best level.
+	 */
+	public long getLevelPrice(boolean buy, int level) {
+		Side side = buy ? bids : asks;
+		return side.price(side.keys[side.count - 1 - level]);
+	}
+
+	/**
+	 * @return Total size of the level, <code>0</code> is the best level.
+	 */
+	public long getLevelSize(boolean buy, int level) {
+		Side side = buy ? bids : asks;
+		return side.totals[side.count - 1 - level];
+	}
+
+	/**
+	 * @return Amount of orders in the book.
+	 */
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	/**
+	 * @return Slot of the order, {@link #NONE} if the order is not in the
+	 *         book.
+	 */
+	private int slot(long orderId) {
+		int slot = (int) ((orderId >>> STOCK_BITS) & SLOT_MASK);
+		if (getStockId(orderId) != stockId || slot >= used || orderIds[slot] != orderId) {
+			return NONE;
+		}
+		return slot;
+	}
+
+	/**
+	 * Matches against the best levels of the opposite side while their price
+	 * is within the limit.
+	 *
+	 * @return Remaining size.
+	 */
+	private int match(Side opposite, long price, int size, FillListener listener) {
+		while (size > 0 && opposite.count > 0) {
+			int best = opposite.count - 1;
+			long levelPrice = opposite.price(opposite.keys[best]);
+			if (opposite.buy ? levelPrice < price : levelPrice > price) {
+				break;
+			}
+
+			int slot = opposite.heads[best];
+			while (size > 0 && NONE != slot) {
+				int traded = Math.min(size, orderSizes[slot]);
+				size -= traded;
+				orderSizes[slot] -= traded;
+				opposite.totals[best] -= traded;
+				listener.fill(orderIds[slot], levelPrice, traded);
+
+				int nextSlot = next[slot];
+				if (0 == orderSizes[slot]) {
+					opposite.heads[best] = nextSlot;
+					if (NONE != nextSlot) {
+						prev[nextSlot] = NONE;
+					}
+					release(slot);
+					orderCount--;
+				}
+				slot = nextSlot;
+			}
+
+			if (NONE == opposite.heads[best]) {
+				opposite.count--;
+			}
+		}
+		return size;
+	}
+
+	private int allocate() {
+		if (NONE != free) {
+			int slot = free;
+			free = next[slot];
+			return slot;
+		}
+		if (used == orderIds.length) {
+			if (used > SLOT_MASK) {
+				return NONE;
+			}
+			int capacity = Math.min(used * 2, SLOT_MASK + 1);
+			orderIds = Arrays.copyOf(orderIds, capacity);
+			orderPrices = Arrays.copyOf(orderPrices, capacity);
+			orderSizes = Arrays.copyOf(orderSizes, capacity);
+			orderBuys = Arrays.copyOf(orderBuys, capacity);
+			next = Arrays.copyOf(next, capacity);
+			prev = Arrays.copyOf(prev, capacity);
+		}
+		return used++;
+	}
+
+	private void release(int slot) {
+		orderIds[slot] = 0;
+		orderSizes[slot] = 0;
+		next[slot] = free;
+		free = slot;
+	}
+
+	/**
+	 * Price levels of one side. Levels are sorted by key ascending, key is the
+	 * price for bids and the negated price for asks, so the best level is
+	 * always the last one.
+	 */
+	private final class Side {
+
+		private final boolean buy;
+
+		private long[] keys = new long[16];
+
+		private int[] heads = new int[16];
+
+		private int[] tails = new int[16];
+
+		private long[] totals = new long[16];
+
+		private int count;
+
+		Side(boolean buy) {
+			this.buy = buy;
+		}
+
+		long price(long key) {
+			return buy ? key : -key;
+		}
+
+		/**
+		 * Adds the order slot to the end of the level queue, level is
+		 * created if needed.
+		 */
+		void append(long price, int slot, int size) {
+			long key = buy ? price : -price;
+			int index = Arrays.binarySearch(keys, 0, count, key);
+			if (index < 0) {
+				index = -index - 1;
+				insert(index, key);
+			}
+
+			int tail = tails[index];
+			prev[slot] = tail;
+			next[slot] = NONE;
+			if (NONE == tail) {
+				heads[index] = slot;
+			} else {
+				next[tail] = slot;
+			}
+			tails[index] = slot;
+			totals[index] += size;
+		}
+
+		/**
+		 * Removes the order slot from its level, level is removed if empty.
+		 */
+		void unlink(long price, int slot, int size) {
+			int index = Arrays.binarySearch(keys, 0, count, buy ? price : -price);
+			int p = prev[slot];
+			int n = next[slot];
+			if (NONE == p) {
+				heads[index] = n;
+			} else {
+				next[p] = n;
+			}
+			if (NONE == n) {
+				tails[index] = p;
+			} else {
+				prev[n] = p;
+			}
+			totals[index] -= size;
+
+			if (NONE == heads[index]) {
+				int moved = count - index - 1;
+				System.arraycopy(keys, index + 1, keys, index, moved);
+				System.arraycopy(heads, index + 1, heads, index, moved);
+				System.arraycopy(tails, index + 1, tails, index, moved);
+				System.arraycopy(totals, index + 1, totals, index, moved);
+				count--;
+			}
+		}
+
+		private void insert(int index, long key) {
+			if (count == keys.length) {
+				int capacity = count * 2;
+				keys = Arrays.copyOf(keys, capacity);
+				heads = Arrays.copyOf(heads, capacity);
+				tails = Arrays.copyOf(tails, capacity);
+				totals = Arrays.copyOf(totals, capacity);
+			}
+			int moved = count - index;
+			System.arraycopy(keys, index, keys, index + 1, moved);
+			System.arraycopy(heads, index, heads, index + 1, moved);
+			System.arraycopy(tails, index, tails, index + 1, moved);
+			System.arraycopy(totals, index, totals, index + 1, moved);
+			keys[index] = key;
+			heads[index] = NONE;
+			tails[index] = NONE;
+			totals[index] = 0;
+			count++;
+		}
+
+	}
+
+}
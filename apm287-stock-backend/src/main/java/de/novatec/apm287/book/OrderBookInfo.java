@@ -0,0 +1,26 @@
+package de.novatec.apm287.book;
+
+import java.util.List;
+
+public class OrderBookInfo {
+	public final String code;
+	public final List<Level> bids;
+	public final List<Level> asks;
+
+	public OrderBookInfo(String code, List<Level> bids, List<Level> asks) {
+		this.code = code;
+		this.bids = bids;
+		this.asks = asks;
+	}
+
+	public static class Level {
+		public final double price;
+		public final long size;
+
+		public Level(double price, long size) {
+			this.price = price;
+			this.size = size;
+		}
+	}
+
+}
@@ -0,0 +1,202 @@
+package de.novatec.apm287.book;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.novatec.apm287.book.OrderBookInfo.Level;
+import de.novatec.apm287.book.OrderResponse.Fill;
+import de.novatec.apm287.common.StockUniverse;
+
+/**
+ * Limit order books of all stocks. Each book is created on the first order
+ * and guarded by its own monitor, so orders of different stocks are matched
+ * in parallel. Prices are kept in ticks of <code>0.01</code>. Orders are
+ * reserved and their fills settled with the {@link OrderSettlement} of the
+ * running service, both sides of a fill are settled against it.
+ */
+@Component
+public class OrderBookManager {
+
+	/**
+	 * Ticks in one unit of price.
+	 */
+	public static final long TICKS = 100;
+
+	/**
+	 * Stocks that can be traded.
+	 */
+	@Autowired
+	private StockUniverse universe;
+
+	/**
+	 * Account of the running service.
+	 */
+	@Autowired
+	private OrderSettlement settlement;
+
+	/**
+	 * Initial amount of order slots of each book.
+	 */
+	@Value("${apm287.book.capacity}")
+	private int capacity;
+
+	/**
+	 * Book for each stock id, <code>null</code> until the first order.
+	 */
+	private AtomicReferenceArray<OrderBook> books;
+
+	/**
+	 * Accepted orders.
+	 */
+	private AtomicLong orderCount = new AtomicLong();
+
+	/**
+	 * Fills of all orders.
+	 */
+	private AtomicLong fillCount = new AtomicLong();
+
+	@PostConstruct
+	public void start() {
+		if (universe.size() > 1 << OrderBook.STOCK_BITS) {
+			throw new IllegalStateException("Order books support at most " + (1 << OrderBook.STOCK_BITS) + " stocks.");
+		}
+		books = new AtomicReferenceArray<>(universe.size());
+	}
+
+	/**
+	 * Matches the limit order and adds the rest to the book.
+	 *
+	 * @param side
+	 *            <code>buy</code> or <code>sell</code>
+	 */
+	public OrderResponse submit(String code, String side, double price, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return new OrderResponse("Wrong stock code.");
+		}
+		boolean buy = "buy".equalsIgnoreCase(side);
+		if (!buy && !"sell".equalsIgnoreCase(side)) {
+			return new OrderResponse("Wrong order side.");
+		}
+		if (size <= 0) {
+			return new OrderResponse("Wrong order size.");
+		}
+		long ticks = Math.round(price * TICKS);
+		if (ticks <= 0) {
+			return new OrderResponse("Wrong order price.");
+		}
+		double limitPrice = (double) ticks / TICKS;
+		String rejection = settlement.reserve(id, buy, limitPrice, size);
+		if (null != rejection) {
+			return new OrderResponse(rejection);
+		}
+
+		List<Fill> fills = new ArrayList<>();
+		long orderId;
+		OrderBook book = getBook(id);
+		synchronized (book) {
+			orderId = book.submit(buy, ticks, size,
+					(makerOrderId, fillPrice, fillSize) -> fills.add(new Fill(makerOrderId, (double) fillPrice / TICKS, fillSize)));
+		}
+		if (orderId < 0) {
+			settlement.release(id, buy, limitPrice, size);
+			return new OrderResponse("Order book is full.");
+		}
+
+		int filled = 0;
+		for (Fill fill : fills) {
+			// maker order reserved with the fill price, it is always its limit
+			settlement.settle(id, buy, limitPrice, fill.price, fill.size);
+			settlement.settle(id, !buy, fill.price, fill.price, fill.size);
+			filled += fill.size;
+		}
+		orderCount.incrementAndGet();
+		fillCount.addAndGet(fills.size());
+		return new OrderResponse(orderId, filled, size - filled, fills);
+	}
+
+	/**
+	 * Removes the order from its book and releases its reservation.
+	 */
+	public OrderResponse cancel(long orderId) {
+		int id = OrderBook.getStockId(orderId);
+		OrderBook book = orderId > 0 && id < books.length() ? books.get(id) : null;
+		if (null == book) {
+			return new OrderResponse("Unknown order.");
+		}
+
+		int cancelled;
+		boolean buy;
+		long ticks;
+		synchronized (book) {
+			buy = book.isBuy(orderId);
+			ticks = book.getPrice(orderId);
+			cancelled = book.cancel(orderId);
+		}
+		if (0 == cancelled) {
+			return new OrderResponse("Unknown order.");
+		}
+		settlement.release(id, buy, (double) ticks / TICKS, cancelled);
+		return new OrderResponse(orderId, 0, cancelled, null);
+	}
+
+	/**
+	 * @param levels
+	 *            Max amount of best levels per side.
+	 * @return Best levels of the book, or <code>null</code> if the code is not
+	 *         known.
+	 */
+	public OrderBookInfo book(String code, int levels) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return null;
+		}
+
+		List<Level> bids = new ArrayList<>();
+		List<Level> asks = new ArrayList<>();
+		OrderBook book = books.get(id);
+		if (null != book) {
+			synchronized (book) {
+				for (int i = 0; i < Math.min(levels, book.getLevelCount(true)); i++) {
+					bids.add(new Level((double) book.getLevelPrice(true, i) / TICKS, book.getLevelSize(true, i)));
+				}
+				for (int i = 0; i < Math.min(levels, book.getLevelCount(false)); i++) {
+					asks.add(new Level((double) book.getLevelPrice(false, i) / TICKS, book.getLevelSize(false, i)));
+				}
+			}
+		}
+		return new OrderBookInfo(code, bids, asks);
+	}
+
+	/**
+	 * @return Accepted orders.
+	 */
+	public long getOrderCount() {
+		return orderCount.get();
+	}
+
+	/**
+	 * @return Fills of all orders.
+	 */
+	public long getFillCount() {
+		return fillCount.get();
+	}
+
+	private OrderBook getBook(int id) {
+		OrderBook book = books.get(id);
+		if (null == book) {
+			books.compareAndSet(id, null, new OrderBook(id, capacity));
+			book = books.get(id);
+		}
+		return book;
+	}
+
+}
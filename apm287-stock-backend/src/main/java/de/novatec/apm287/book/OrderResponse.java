@@ -0,0 +1,42 @@
+package de.novatec.apm287.book;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+public class OrderResponse {
+	public boolean success;
+	public long orderId;
+	public int filled;
+	public int remaining;
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public List<Fill> fills;
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public String reason;
+
+	public OrderResponse(long orderId, int filled, int remaining, List<Fill> fills) {
+		this.success = true;
+		this.orderId = orderId;
+		this.filled = filled;
+		this.remaining = remaining;
+		this.fills = fills;
+	}
+
+	public OrderResponse(String reason) {
+		this.success = false;
+		this.reason = reason;
+	}
+
+	public static class Fill {
+		public final long orderId;
+		public final double price;
+		public final int size;
+
+		public Fill(long orderId, double price, int size) {
+			this.orderId = orderId;
+			this.price = price;
+			this.size = size;
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package de.novatec.apm287.book;
+
+/**
+ * Account the orders of the books are settled against, implemented by the
+ * services keeping the balance and holdings. Each order reserves the cost of
+ * the buy at the limit price or the holding of the sell on submit. Fills
+ * consume the reservation and update balance and holdings, the rest of the
+ * order stays reserved until it is filled or cancelled.
+ */
+public interface OrderSettlement {
+
+	/**
+	 * Settlement of the services that do not support orders, rejects all of
+	 * them.
+	 */
+	OrderSettlement UNSUPPORTED = new OrderSettlement() {
+
+		@Override
+		public String reserve(int id, boolean buy, double price, int size) {
+			return "Orders need the java-sync or java-concurrent service.";
+		}
+
+		@Override
+		public void release(int id, boolean buy, double price, int size) {
+		}
+
+		@Override
+		public void settle(int id, boolean buy, double limitPrice, double price, int size) {
+		}
+
+	};
+
+	/**
+	 * Reserves the cost of the buy or the holding of the sell.
+	 *
+	 * @param price
+	 *            Limit price of the order.
+	 * @return <code>null</code> if reserved, otherwise the rejection reason
+	 */
+	String reserve(int id, boolean buy, double price, int size);
+
+	/**
+	 * Releases the reservation of the size that will not be filled, for
+	 * example when the order is cancelled.
+	 *
+	 * @param price
+	 *            Limit price of the order.
+	 */
+	void release(int id, boolean buy, double price, int size);
+
+	/**
+	 * Settles the fill of one side: releases the reservation of the filled
+	 * size and updates balance and holding with the fill price.
+	 *
+	 * @param limitPrice
+	 *            Limit price the order reserved with.
+	 * @param price
+	 *            Price of the fill.
+	 */
+	void settle(int id, boolean buy, double limitPrice, double price, int size);
+
+}
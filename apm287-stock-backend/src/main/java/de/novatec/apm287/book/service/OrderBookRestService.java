@@ -0,0 +1,51 @@
+package de.novatec.apm287.book.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import de.novatec.apm287.book.OrderBookInfo;
+import de.novatec.apm287.book.OrderBookManager;
+import de.novatec.apm287.book.OrderResponse;
+
+@RestController
+@RequestMapping("/")
+public class OrderBookRestService {
+
+	@Autowired
+	OrderBookManager manager;
+
+	@CrossOrigin(origins = "*")
+	@PostMapping(value = "/orders", produces = MediaType.APPLICATION_JSON_VALUE)
+	public OrderResponse order(
+			@RequestParam(name = "c", required = true) String code,
+			@RequestParam(name = "side", required = true) String side,
+			@RequestParam(name = "p", required = true) double price,
+			@RequestParam(name = "s", required = false, defaultValue = "1") int size
+		) {
+		return manager.submit(code, side, price, size);
+	}
+
+	@CrossOrigin(origins = "*")
+	@DeleteMapping(value = "/orders/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public OrderResponse cancel(@PathVariable("id") long orderId) {
+		return manager.cancel(orderId);
+	}
+
+	@CrossOrigin(origins = "*")
+	@GetMapping(value = "/book", produces = MediaType.APPLICATION_JSON_VALUE)
+	public OrderBookInfo book(
+			@RequestParam(name = "c", required = true) String code,
+			@RequestParam(name = "l", required = false, defaultValue = "10") int levels
+		) {
+		return manager.book(code, levels);
+	}
+
+}
@@ -0,0 +1,11 @@
+package de.novatec.apm287.common;
+
+public class ApprovalRequest {
+	public String code;
+	public int size;
+
+	public ApprovalRequest(String code, int size) {
+		this.code = code;
+		this.size = size;
+	}
+}
@@ -0,0 +1,98 @@
+package de.novatec.apm287.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+import com.google.common.util.concurrent.AtomicDouble;
+
+/**
+ * Exposure in stocks maintained incrementally. Engines add the delta of each
+ * price update (<code>(newPrice - oldPrice) * holding</code>) and each holding
+ * change (<code>price * sizeChange</code>), thus reading the exposure is O(1).
+ * Periodic reconciliation compares it with a full scan and corrects the
+ * accumulated rounding error.
+ */
+public class ExposureTracker {
+
+	/**
+	 * Current exposure.
+	 */
+	private final AtomicDouble exposure = new AtomicDouble();
+
+	/**
+	 * Incremented on each change, used to detect changes during the scan.
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Difference found by the last reconciliation.
+	 */
+	private volatile double lastDrift;
+
+	private final AtomicLong reconciledCount = new AtomicLong();
+
+	private final AtomicLong skippedCount = new AtomicLong();
+
+	/**
+	 * @return Current exposure.
+	 */
+	public double get() {
+		return exposure.get();
+	}
+
+	/**
+	 * Adds the delta to the exposure.
+	 */
+	public void add(double delta) {
+		if (0 != delta) {
+			exposure.addAndGet(delta);
+			version.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Reconciles exposure with the full scan. If exposure is changed during
+	 * the scan the result can not be compared, then reconciliation is skipped
+	 * till the next time.
+	 *
+	 * @param scan
+	 *            Computes exposure from all stocks.
+	 * @return If exposure was reconciled.
+	 */
+	public boolean reconcile(DoubleSupplier scan) {
+		long before = version.get();
+		double current = exposure.get();
+		double scanned = scan.getAsDouble();
+		if (before != version.get()) {
+			skippedCount.incrementAndGet();
+			return false;
+		}
+
+		lastDrift = scanned - current;
+		add(lastDrift);
+		reconciledCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return Difference found by the last reconciliation.
+	 */
+	public double getLastDrift() {
+		return lastDrift;
+	}
+
+	/**
+	 * @return Amount of done reconciliations.
+	 */
+	public long getReconciledCount() {
+		return reconciledCount.get();
+	}
+
+	/**
+	 * @return Amount of reconciliations skipped due to concurrent changes.
+	 */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+}
@@ -15,6 +15,14 @@ public class StockInfo {
 		this.startingPrice = price;
 		this.price = price;
 	}
+
+	public StockInfo(StockInfo stockInfo) {
+		this.code = stockInfo.code;
+		this.startingPrice = stockInfo.startingPrice;
+		this.price = stockInfo.price;
+		this.change = stockInfo.change;
+		this.holding = stockInfo.holding;
+	}
 	
 	public static class StockInfoWarpper {
 		public final Collection<StockInfo> stockPrices;
@@ -0,0 +1,169 @@
+package de.novatec.apm287.common;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Immutable and versioned view of all stocks. Each change derives a new
+ * snapshot that is published with a single atomic reference, so readers get
+ * a consistent view of all stocks without taking any lock. Stocks are kept in
+ * chunks, thus a change copies only the chunk of the changed stock and the
+ * chunk table, not all stocks.
+ * <p>
+ * Each stock has a stamp that must increase with each change of the stock.
+ * Stock is replaced only by a newer stamp, so changes done in order under the
+ * lock of the stock can be published after the lock is released.
+ * <p>
+ * Stock infos given to the snapshot must not be modified afterwards.
+ */
+public final class StockSnapshot {
+
+	private static final int CHUNK_BITS = 6;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * Incremented with each derived snapshot.
+	 */
+	private final long version;
+
+	/**
+	 * Amount of stocks.
+	 */
+	private final int size;
+
+	/**
+	 * Stocks by chunk, index in the chunk is the lower bits of the id.
+	 */
+	private final StockInfo[][] stocks;
+
+	/**
+	 * Stamps of the stocks, same layout as the stocks.
+	 */
+	private final long[][] stamps;
+
+	/**
+	 * @param stocks
+	 *            Stock for each id, all with stamp <code>0</code>.
+	 */
+	public StockSnapshot(StockInfo... stocks) {
+		this.version = 0;
+		this.size = stocks.length;
+		int chunks = (size + CHUNK_MASK) >>> CHUNK_BITS;
+		this.stocks = new StockInfo[chunks][];
+		this.stamps = new long[chunks][];
+		for (int c = 0; c < chunks; c++) {
+			int length = Math.min(CHUNK_SIZE, size - (c << CHUNK_BITS));
+			this.stocks[c] = new StockInfo[length];
+			System.arraycopy(stocks, c << CHUNK_BITS, this.stocks[c], 0, length);
+			this.stamps[c] = new long[length];
+		}
+	}
+
+	private StockSnapshot(long version, int size, StockInfo[][] stocks, long[][] stamps) {
+		this.version = version;
+		this.size = size;
+		this.stocks = stocks;
+		this.stamps = stamps;
+	}
+
+	/**
+	 * @return Snapshot with the stock replaced, or this snapshot if the stamp
+	 *         is not newer than the one of the current stock.
+	 */
+	public StockSnapshot with(int id, StockInfo stock, long stamp) {
+		int c = id >>> CHUNK_BITS;
+		int i = id & CHUNK_MASK;
+		if (stamp <= stamps[c][i]) {
+			return this;
+		}
+
+		StockInfo[][] newStocks = stocks.clone();
+		long[][] newStamps = stamps.clone();
+		newStocks[c] = stocks[c].clone();
+		newStamps[c] = stamps[c].clone();
+		newStocks[c][i] = stock;
+		newStamps[c][i] = stamp;
+		return new StockSnapshot(version + 1, size, newStocks, newStamps);
+	}
+
+	/**
+	 * Replaces the stocks in one version, as {@link #with(int, StockInfo, long)}
+	 * does for each of them.
+	 *
+	 * @return Snapshot with the stocks replaced, or this snapshot if none of
+	 *         the stamps is newer.
+	 */
+	public StockSnapshot with(int[] ids, StockInfo[] stocks, long[] stamps) {
+		StockInfo[][] newStocks = null;
+		long[][] newStamps = null;
+		boolean[] copied = null;
+		for (int k = 0; k < ids.length; k++) {
+			int c = ids[k] >>> CHUNK_BITS;
+			int i = ids[k] & CHUNK_MASK;
+			if (stamps[k] <= this.stamps[c][i]) {
+				continue;
+			}
+
+			if (null == newStocks) {
+				newStocks = this.stocks.clone();
+				newStamps = this.stamps.clone();
+				copied = new boolean[newStocks.length];
+			}
+			if (!copied[c]) {
+				newStocks[c] = newStocks[c].clone();
+				newStamps[c] = newStamps[c].clone();
+				copied[c] = true;
+			}
+			newStocks[c][i] = stocks[k];
+			newStamps[c][i] = stamps[k];
+		}
+		return null == newStocks ? this : new StockSnapshot(version + 1, size, newStocks, newStamps);
+	}
+
+	/**
+	 * @return Version of the snapshot.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return Amount of stocks.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Stock with the id.
+	 */
+	public StockInfo get(int id) {
+		return stocks[id >>> CHUNK_BITS][id & CHUNK_MASK];
+	}
+
+	/**
+	 * @return Unmodifiable list of all stocks, index is the id.
+	 */
+	public List<StockInfo> getStocks() {
+		return new AbstractList<StockInfo>() {
+
+			@Override
+			public StockInfo get(int index) {
+				if (index < 0 || index >= size) {
+					throw new IndexOutOfBoundsException("Index " + index + ", size " + size + ".");
+				}
+				return StockSnapshot.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+		};
+	}
+
+}
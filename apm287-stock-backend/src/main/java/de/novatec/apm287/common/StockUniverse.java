@@ -0,0 +1,192 @@
+package de.novatec.apm287.common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * All stock codes that can be traded. Each code is interned once to a dense
+ * id from <code>0</code> to <code>size() - 1</code>, so the engines can keep
+ * the stock data in arrays indexed by the id. Resolving the id of a code is
+ * done with an open addressing table, thus it is O(1) and does not allocate.
+ */
+@Lazy
+@Component
+public class StockUniverse {
+
+	/**
+	 * Codes, index is the id.
+	 */
+	private final String[] codes;
+
+	/**
+	 * Open addressing table of codes, length is power of 2.
+	 */
+	private final String[] table;
+
+	/**
+	 * Id of the code at the same index in the table.
+	 */
+	private final int[] tableIds;
+
+	/**
+	 * Name of the file in the journal directory keeping the generated codes.
+	 */
+	public static final String JOURNAL_FILE = "universe";
+
+	/**
+	 * Loads the codes from the file or generates them. Generated codes are
+	 * random, so with the trade journal enabled they are saved to the journal
+	 * directory and loaded from there on the next start, otherwise the
+	 * journaled trades would refer to unknown codes.
+	 *
+	 * @param size
+	 *            Amount of codes to generate.
+	 * @param file
+	 *            File with one code per line, when set the size is ignored.
+	 * @param journal
+	 *            If the trade journal is enabled.
+	 * @param journalDir
+	 *            Directory of the trade journal.
+	 */
+	@Autowired
+	public StockUniverse(@Value("${apm287.universe.size}") int size, @Value("${apm287.universe.file:}") String file,
+			@Value("${apm287.journal.enabled}") boolean journal, @Value("${apm287.journal.dir}") String journalDir) {
+		this(null != file && !file.isEmpty() ? load(file)
+				: journal ? loadOrGenerate(size, Paths.get(journalDir, JOURNAL_FILE)) : generate(size));
+	}
+
+	/**
+	 * @param codes
+	 *            Codes, must be unique.
+	 */
+	public StockUniverse(String... codes) {
+		this.codes = codes.clone();
+
+		int capacity = Integer.highestOneBit(Math.max(1, codes.length) * 2 - 1) << 1;
+		table = new String[capacity];
+		tableIds = new int[capacity];
+		for (int id = 0; id < codes.length; id++) {
+			int slot = slot(codes[id]);
+			while (null != table[slot]) {
+				if (table[slot].equals(codes[id])) {
+					throw new IllegalArgumentException("Duplicate stock code " + codes[id] + ".");
+				}
+				slot = (slot + 1) & (table.length - 1);
+			}
+			table[slot] = codes[id];
+			tableIds[slot] = id;
+		}
+	}
+
+	/**
+	 * @return Amount of stocks.
+	 */
+	public int size() {
+		return codes.length;
+	}
+
+	/**
+	 * @return Code of the stock.
+	 */
+	public String code(int id) {
+		return codes[id];
+	}
+
+	/**
+	 * @return Id of the code or <code>-1</code> if code is not known.
+	 */
+	public int id(String code) {
+		if (null == code) {
+			return -1;
+		}
+		int slot = slot(code);
+		String existing;
+		while (null != (existing = table[slot])) {
+			if (existing.equals(code)) {
+				return tableIds[slot];
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Copy of all codes, index is the id.
+	 */
+	public String[] codes() {
+		return codes.clone();
+	}
+
+	private int slot(String code) {
+		int h = code.hashCode();
+		return (h ^ (h >>> 16)) & (table.length - 1);
+	}
+
+	/**
+	 * Generates random unique codes. Codes have three letters as long as there
+	 * are enough combinations, otherwise they are longer.
+	 */
+	private static String[] generate(int size) {
+		int length = 3;
+		while (Math.pow(26, length) < size * 4.0d) {
+			length++;
+		}
+
+		Set<String> codes = new LinkedHashSet<>(size * 2);
+		while (codes.size() < size) {
+			codes.add(RandomStringUtils.randomAlphabetic(length).toUpperCase());
+		}
+		return codes.toArray(new String[size]);
+	}
+
+	/**
+	 * Loads the codes saved in the journal directory or generates and saves
+	 * them when there are none yet.
+	 */
+	private static String[] loadOrGenerate(int size, Path file) {
+		if (Files.exists(file)) {
+			String[] codes = load(file.toString());
+			if (codes.length != size) {
+				System.out.println("Using the " + codes.length + " stock codes saved in " + file
+						+ " the trade journal refers to, delete it with the journal to generate " + size + " new ones.");
+			}
+			return codes;
+		}
+
+		String[] codes = generate(size);
+		try {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			Files.write(file, Arrays.asList(codes), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not save stock codes to " + file + ".", e);
+		}
+		return codes;
+	}
+
+	/**
+	 * Loads codes from the file, empty lines and lines starting with
+	 * <code>#</code> are skipped.
+	 */
+	private static String[] load(String file) {
+		try {
+			return Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8).stream().map(String::trim)
+					.filter(l -> !l.isEmpty() && !l.startsWith("#")).toArray(String[]::new);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not load stock codes from " + file + ".", e);
+		}
+	}
+
+}
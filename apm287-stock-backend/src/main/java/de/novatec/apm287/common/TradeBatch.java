@@ -0,0 +1,61 @@
+package de.novatec.apm287.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+public class TradeBatch {
+
+	public enum Mode {
+		/**
+		 * Either all orders are executed or none.
+		 */
+		ALL_OR_NOTHING,
+
+		/**
+		 * Each order is executed if possible.
+		 */
+		BEST_EFFORT
+	}
+
+	public Mode mode = Mode.BEST_EFFORT;
+	public List<Order> orders = new ArrayList<>();
+
+	public TradeBatch() {
+	}
+
+	public TradeBatch(Mode mode, List<Order> orders) {
+		this.mode = mode;
+		this.orders = orders;
+	}
+
+	public static class Order {
+		/**
+		 * <code>buy</code> or <code>sell</code>
+		 */
+		public String side;
+		public String code;
+		public int size;
+
+		public Order() {
+		}
+
+		public Order(String side, String code, int size) {
+			this.side = side;
+			this.code = code;
+			this.size = size;
+		}
+
+		@JsonIgnore
+		public boolean isBuy() {
+			return "buy".equalsIgnoreCase(side);
+		}
+
+		@JsonIgnore
+		public boolean isSell() {
+			return "sell".equalsIgnoreCase(side);
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+package de.novatec.apm287.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+import de.novatec.apm287.common.TradeBatch.Mode;
+import de.novatec.apm287.common.TradeBatch.Order;
+
+/**
+ * State of a {@link TradeBatch} while it is executed by a service. The steps
+ * are the same for all services:
+ * <ol>
+ * <li>orders are validated on creation</li>
+ * <li>buys over the threshold are approved in one approval round</li>
+ * <li>under the lock (or in the single thread) of the service the orders are
+ * checked in sequence against the balance and holdings, including the changes
+ * of the orders before, so the service can apply the remaining orders without
+ * any rollback</li>
+ * </ol>
+ * In {@link Mode#ALL_OR_NOTHING} mode the batch is not executed as soon as a
+ * single order is rejected.
+ */
+public class TradeBatchExecution {
+
+	private final TradeBatch batch;
+
+	/**
+	 * Stock id of each order, <code>-1</code> if code is not known.
+	 */
+	private final int[] ids;
+
+	/**
+	 * Rejection reason of each order, <code>null</code> if not rejected.
+	 */
+	private final String[] rejections;
+
+	/**
+	 * Cost of each order at the checked price.
+	 */
+	private final double[] costs;
+
+	/**
+	 * Stock info after each executed order.
+	 */
+	private final StockInfo[] stockInfos;
+
+	/**
+	 * Failure reason of each executed order that was reverted afterwards,
+	 * <code>null</code> if not failed.
+	 */
+	private final String[] failures;
+
+	/**
+	 * Validates the orders.
+	 */
+	public TradeBatchExecution(TradeBatch batch, StockUniverse universe) {
+		this.batch = batch;
+		int size = batch.orders.size();
+		ids = new int[size];
+		rejections = new String[size];
+		costs = new double[size];
+		stockInfos = new StockInfo[size];
+		failures = new String[size];
+
+		for (int i = 0; i < size; i++) {
+			Order order = batch.orders.get(i);
+			ids[i] = null == order ? -1 : universe.id(order.code);
+			if (ids[i] < 0) {
+				rejections[i] = "Wrong stock code.";
+			} else if (!order.isBuy() && !order.isSell()) {
+				rejections[i] = "Wrong order side.";
+			} else if (order.size <= 0) {
+				rejections[i] = order.isBuy() ? "Wrong buy size." : "Wrong sell size.";
+			}
+		}
+	}
+
+	/**
+	 * @return Amount of orders.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return Order at the index.
+	 */
+	public Order getOrder(int i) {
+		return batch.orders.get(i);
+	}
+
+	/**
+	 * @return Stock id of the order.
+	 */
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @return Cost of the order at the price it was checked with.
+	 */
+	public double getCost(int i) {
+		return costs[i];
+	}
+
+	/**
+	 * @return If order is rejected.
+	 */
+	public boolean isRejected(int i) {
+		return null != rejections[i];
+	}
+
+	/**
+	 * Rejects the order.
+	 */
+	public void reject(int i, String reason) {
+		rejections[i] = reason;
+	}
+
+	/**
+	 * Marks the order as executed.
+	 *
+	 * @param stockInfo
+	 *            Stock info after the order.
+	 */
+	public void executed(int i, StockInfo stockInfo) {
+		stockInfos[i] = stockInfo;
+	}
+
+	/**
+	 * Marks the executed order as failed, used when the service had to revert
+	 * it. Unlike the rejection it does not change if the batch is executable.
+	 */
+	public void failed(int i, String reason) {
+		failures[i] = reason;
+	}
+
+	/**
+	 * Takes over the result of an order executed on its own.
+	 */
+	public void executed(int i, BuySellResponse response) {
+		if (response.success) {
+			stockInfos[i] = response.stockInfo;
+		} else {
+			rejections[i] = response.reason;
+		}
+	}
+
+	/**
+	 * @return If orders can be executed: always in the best effort mode,
+	 *         otherwise only if no order is rejected.
+	 */
+	public boolean isExecutable() {
+		if (Mode.ALL_OR_NOTHING != batch.mode) {
+			return true;
+		}
+		for (String rejection : rejections) {
+			if (null != rejection) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Approves all buys over the threshold with one approval round. Buys not
+	 * approved are rejected.
+	 *
+	 * @param approval
+	 *            Approves the requests, result has a decision for each
+	 *            request in the same order.
+	 * @return Stage completed with this execution once approved.
+	 */
+	public CompletionStage<TradeBatchExecution> approve(
+			Function<List<ApprovalRequest>, CompletionStage<List<Boolean>>> approval, int threshold) {
+		List<Integer> indexes = new ArrayList<>();
+		List<ApprovalRequest> requests = new ArrayList<>();
+		if (isExecutable()) {
+			for (int i = 0; i < ids.length; i++) {
+				Order order = batch.orders.get(i);
+				if (!isRejected(i) && order.isBuy() && order.size > threshold) {
+					indexes.add(i);
+					requests.add(new ApprovalRequest(order.code, order.size));
+				}
+			}
+		}
+		if (requests.isEmpty()) {
+			return CompletableFuture.completedFuture(this);
+		}
+
+		return approval.apply(requests).handle((approved, t) -> {
+			for (int k = 0; k < indexes.size(); k++) {
+				int i = indexes.get(k);
+				if (null != t) {
+					Throwable cause = t instanceof CompletionException && null != t.getCause() ? t.getCause() : t;
+					rejections[i] = cause instanceof TimeoutException ? "Approval resulted in timeout."
+							: "Error during approval. " + cause.getMessage();
+				} else if (!approved.get(k)) {
+					rejections[i] = "Transaction not approved.";
+				}
+			}
+			return this;
+		});
+	}
+
+	/**
+	 * Checks the orders in sequence, each order sees the balance and holdings
+	 * changed by the orders before. Must be called holding the lock that
+	 * guards the balance and holdings.
+	 *
+	 * @param balance
+	 *            Available balance.
+	 * @param price
+	 *            Current price by stock id.
+	 * @param holding
+	 *            Current holding by stock id.
+	 * @return If the orders can be executed.
+	 */
+	public boolean check(double balance, IntToDoubleFunction price, IntUnaryOperator holding) {
+		if (!isExecutable()) {
+			return false;
+		}
+
+		Map<Integer, Integer> holdingChanges = new HashMap<>();
+		for (int i = 0; i < ids.length; i++) {
+			if (isRejected(i)) {
+				continue;
+			}
+
+			Order order = batch.orders.get(i);
+			int change = holdingChanges.getOrDefault(ids[i], 0);
+			double cost = price.applyAsDouble(ids[i]) * order.size;
+			if (order.isBuy()) {
+				if (cost > balance) {
+					rejections[i] = "Insufficient balance.";
+					continue;
+				}
+				balance -= cost;
+				holdingChanges.put(ids[i], change + order.size);
+			} else {
+				if (order.size > holding.applyAsInt(ids[i]) + change) {
+					rejections[i] = "Insufficient stock holding.";
+					continue;
+				}
+				balance += cost;
+				holdingChanges.put(ids[i], change - order.size);
+			}
+			costs[i] = cost;
+		}
+		return isExecutable();
+	}
+
+	/**
+	 * @return Response with the result of each order.
+	 */
+	public TradeBatchResponse toResponse() {
+		boolean executable = isExecutable();
+		boolean success = true;
+		String reason = null;
+		List<BuySellResponse> responses = new ArrayList<>(ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			if (isRejected(i)) {
+				success = false;
+				if (!executable && null == reason) {
+					reason = "Order " + (i + 1) + " rejected: " + rejections[i];
+				}
+				responses.add(new BuySellResponse(false, null, rejections[i]));
+			} else if (!executable) {
+				responses.add(new BuySellResponse(false, null, "Batch not executed."));
+			} else if (null != failures[i]) {
+				success = false;
+				if (null == reason) {
+					reason = "Order " + (i + 1) + " failed: " + failures[i];
+				}
+				responses.add(new BuySellResponse(false, null, failures[i]));
+			} else {
+				responses.add(new BuySellResponse(true, stockInfos[i]));
+			}
+		}
+		return new TradeBatchResponse(success, responses, reason);
+	}
+
+}
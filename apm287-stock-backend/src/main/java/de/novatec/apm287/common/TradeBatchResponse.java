@@ -0,0 +1,19 @@
+package de.novatec.apm287.common;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+public class TradeBatchResponse {
+	public boolean success;
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public List<BuySellResponse> responses;
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public String reason;
+
+	public TradeBatchResponse(boolean success, List<BuySellResponse> responses, String reason) {
+		this.success = success;
+		this.responses = responses;
+		this.reason = reason;
+	}
+}
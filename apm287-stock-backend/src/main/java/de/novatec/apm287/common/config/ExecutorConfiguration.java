@@ -0,0 +1,88 @@
+package de.novatec.apm287.common.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Configuration of the threads handling the requests. With
+ * <code>apm287.executor=virtual</code> Tomcat handles each request on a new
+ * virtual thread. Virtual threads need the backend to run on Java 21, start
+ * it with <code>-Pvirtual</code> to do so.
+ * <p>
+ * On the servlet stack Spring MVC writes the elements of the returned
+ * publishers, like the <code>/stream/prices</code> events, with the async
+ * executor. Without one it starts a new thread per element, so a bounded pool
+ * of <code>apm287.mvc.async.threads</code> is used instead (or virtual threads
+ * with the virtual executor mode).
+ */
+@Configuration
+public class ExecutorConfiguration {
+
+	/**
+	 * Executor mode using virtual threads.
+	 */
+	public static final String VIRTUAL = "virtual";
+
+	@Bean
+	@ConditionalOnProperty(name = "apm287.executor", havingValue = VIRTUAL)
+	public WebServerFactoryCustomizer<TomcatServletWebServerFactory> getVirtualThreadsCustomizer() {
+		return factory -> factory.addConnectorCustomizers(
+				connector -> ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(newVirtualThreadExecutor()));
+	}
+
+	@Bean
+	@ConditionalOnWebApplication(type = Type.SERVLET)
+	public WebMvcConfigurer getAsyncSupportConfigurer(@Value("${apm287.executor}") String executor,
+			@Value("${apm287.mvc.async.threads}") int threads, @Value("${apm287.mvc.async.queueSize}") int queueSize) {
+		AsyncTaskExecutor taskExecutor = VIRTUAL.equals(executor) ? new TaskExecutorAdapter(newVirtualThreadExecutor())
+				: newMvcAsyncExecutor(threads, queueSize);
+		return new WebMvcConfigurer() {
+			@Override
+			public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+				configurer.setTaskExecutor(taskExecutor);
+			}
+		};
+	}
+
+	private static ThreadPoolTaskExecutor newMvcAsyncExecutor(int threads, int queueSize) {
+		ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(threads);
+		taskExecutor.setMaxPoolSize(threads);
+		taskExecutor.setQueueCapacity(queueSize);
+		taskExecutor.setThreadNamePrefix("mvc-async-");
+		taskExecutor.setDaemon(true);
+		taskExecutor.initialize();
+		return taskExecutor;
+	}
+
+	/**
+	 * Creates executor starting new virtual thread for each task. Created with
+	 * reflection so that the code still compiles for Java 8.
+	 * 
+	 * @return executor
+	 * @throws IllegalStateException
+	 *             if running JVM has no virtual threads
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads need Java 21 or newer.", e);
+		}
+	}
+}
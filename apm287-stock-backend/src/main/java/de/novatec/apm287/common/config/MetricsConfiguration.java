@@ -0,0 +1,53 @@
+package de.novatec.apm287.common.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.service.StockResponseCache.CachedBody;
+import de.novatec.apm287.common.stream.PriceStream;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.jvm.ClassLoaderMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Registry of the meters exposed on the <code>/metrics</code>. Next to the
+ * JVM meters it exposes the counters the response cache and the price stream
+ * already keep.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+	@Bean
+	public PrometheusMeterRegistry getMeterRegistry(StockResponseCache responseCache, PriceStream priceStream) {
+		PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+		new ClassLoaderMetrics().bindTo(registry);
+		new JvmMemoryMetrics().bindTo(registry);
+		new JvmGcMetrics().bindTo(registry);
+		new JvmThreadMetrics().bindTo(registry);
+		new ProcessorMetrics().bindTo(registry);
+
+		bindCachedBody(registry, responseCache.getStocks(), "stocks");
+		bindCachedBody(registry, responseCache.getBalance(), "balance");
+		FunctionCounter.builder("apm287.cache.notModified", responseCache, StockResponseCache::getNotModifiedCount)
+				.register(registry);
+
+		FunctionCounter.builder("apm287.stream.conflated", priceStream, PriceStream::getConflatedCount)
+				.register(registry);
+		FunctionCounter.builder("apm287.stream.dropped", priceStream, PriceStream::getDroppedCount).register(registry);
+		return registry;
+	}
+
+	private static void bindCachedBody(PrometheusMeterRegistry registry, CachedBody body, String name) {
+		FunctionCounter.builder("apm287.cache.hits", body, CachedBody::getHitCount).tags("body", name)
+				.register(registry);
+		FunctionCounter.builder("apm287.cache.renders", body, CachedBody::getRenderCount).tags("body", name)
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,40 @@
+package de.novatec.apm287.common.config;
+
+import java.util.Collections;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+/**
+ * Selects the web stack from the service when
+ * <code>spring.main.web-application-type</code> is not set: the
+ * <code>reactor</code> service runs end to end on WebFlux / Netty, the others
+ * on Spring MVC / Tomcat. Both stacks are on the class path, so Spring Boot
+ * would otherwise always pick the servlet one.
+ */
+public class WebApplicationTypePostProcessor implements EnvironmentPostProcessor, Ordered {
+
+	private static final String WEB_APPLICATION_TYPE = "spring.main.web-application-type";
+
+	@Override
+	public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+		if (environment.containsProperty(WEB_APPLICATION_TYPE)) {
+			return;
+		}
+		String type = "reactor".equals(environment.getProperty("apm287.service")) ? "reactive" : "servlet";
+		environment.getPropertySources().addLast(new MapPropertySource("apm287-web-application-type",
+				Collections.singletonMap(WEB_APPLICATION_TYPE, type)));
+	}
+
+	/**
+	 * Runs after the <code>application.properties</code> are loaded.
+	 */
+	@Override
+	public int getOrder() {
+		return Ordered.LOWEST_PRECEDENCE;
+	}
+
+}
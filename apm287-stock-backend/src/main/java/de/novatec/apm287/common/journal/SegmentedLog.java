@@ -0,0 +1,471 @@
+package de.novatec.apm287.common.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records stored in memory-mapped, pre-allocated segment
+ * files. Appends are queued and written by a single writer thread that drains
+ * all waiting records, writes them and forces the segment once per batch
+ * (group commit). When a record does not fit the current segment a new one is
+ * started.
+ * <p>
+ * Each record is written as <code>length</code>, <code>crc</code> and the
+ * payload. Zero length marks the end of the written data in the pre-allocated
+ * segment, a record with wrong checksum is treated as torn write and ends the
+ * log as well.
+ * <p>
+ * Records are addressed by their offset
+ * <code>segmentIndex * segmentSize + position</code>. Segments older than the
+ * one being written can be deleted once their records are not needed anymore.
+ */
+public class SegmentedLog implements Closeable {
+
+	/**
+	 * Bytes of the record header (length and crc).
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Extension of the segment files.
+	 */
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Max amount of records written with one force.
+	 */
+	private static final int MAX_BATCH_SIZE = 1024;
+
+	/**
+	 * Queued by the close to wake up the writer, interrupting it would close
+	 * the channels it opens while writing.
+	 */
+	private static final Append WAKE_UP = new Append(new byte[0], null);
+
+	/**
+	 * Directory holding the segments.
+	 */
+	private final Path dir;
+
+	/**
+	 * Size of each segment file.
+	 */
+	private final int segmentSize;
+
+	/**
+	 * Records waiting to be written.
+	 */
+	private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+
+	/**
+	 * Thread writing the records.
+	 */
+	private final Thread writer;
+
+	/**
+	 * Index of the segment written to.
+	 */
+	private long segmentIndex;
+
+	/**
+	 * Mapped segment written to, only accessed by the writer thread after open.
+	 */
+	private MappedByteBuffer segment;
+
+	/**
+	 * Segment and position up to which records are durable, encoded as
+	 * <code>segmentIndex * segmentSize + position</code>.
+	 */
+	private volatile long committed;
+
+	/**
+	 * Guards {@link #running} together with the queueing, so no record is
+	 * queued after the writer is told to stop.
+	 */
+	private final Object lock = new Object();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Opens the log in the given directory. The existing segments are scanned
+	 * to find the end of the log, the following appends continue from there.
+	 *
+	 * @param dir
+	 *            Directory to store segments in, created if it does not exist.
+	 * @param segmentSize
+	 *            Size of one segment in bytes.
+	 * @param name
+	 *            Name of the writer thread.
+	 */
+	public SegmentedLog(Path dir, int segmentSize, String name) throws IOException {
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(dir);
+
+		List<Path> segments = segments();
+		if (segments.isEmpty()) {
+			segmentIndex = 0;
+			segment = map(segmentIndex);
+		} else {
+			segmentIndex = index(segments.get(segments.size() - 1));
+			segment = map(segmentIndex);
+			segment.position(end(segment));
+		}
+		committed = segmentIndex * segmentSize + segment.position();
+
+		writer = new Thread(this::write, name);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Appends the record.
+	 *
+	 * @return future completed when the record is forced to the disk
+	 */
+	public CompletableFuture<Void> append(byte[] record) {
+		return append(record, null);
+	}
+
+	/**
+	 * Appends the record.
+	 *
+	 * @param written
+	 *            Gets the offset of the record once it is durable, before the
+	 *            returned future completes. Called by the writer thread, can
+	 *            be <code>null</code>.
+	 * @return future completed when the record is forced to the disk
+	 */
+	public CompletableFuture<Void> append(byte[] record, LongConsumer written) {
+		if (record.length == 0 || record.length + HEADER_SIZE > segmentSize) {
+			throw new IllegalArgumentException("Record size must be between 1 and " + (segmentSize - HEADER_SIZE) + ".");
+		}
+		Append append = new Append(record, written);
+		synchronized (lock) {
+			if (!running) {
+				append.result.completeExceptionally(new IOException("Log is closed."));
+			} else {
+				queue.add(append);
+			}
+		}
+		return append.result;
+	}
+
+	/**
+	 * Passes all durable records to the consumer in the order they were
+	 * appended. Can be called while appending, records appended during the
+	 * scan may or may not be passed.
+	 */
+	public void scan(Consumer<ByteBuffer> consumer) throws IOException {
+		scan((record, offset) -> consumer.accept(record));
+	}
+
+	/**
+	 * Passes all durable records with their offset to the consumer in the
+	 * order they were appended.
+	 */
+	public void scan(ObjLongConsumer<ByteBuffer> consumer) throws IOException {
+		long limit = committed;
+		for (Path path : segments()) {
+			long index = index(path);
+			if (index * segmentSize >= limit) {
+				break;
+			}
+			int segmentLimit = (int) Math.min(segmentSize, limit - index * segmentSize);
+			if (!Files.exists(path)) {
+				// deleted during the scan
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, segmentSize);
+				buffer.limit(segmentLimit);
+				ByteBuffer record;
+				int position = buffer.position();
+				while (null != (record = next(buffer))) {
+					consumer.accept(record, index * segmentSize + position);
+					position = buffer.position();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes the records at the offsets to the consumer. Each segment is
+	 * mapped once, records in deleted segments are skipped.
+	 *
+	 * @param offsets
+	 *            Ascending offsets of durable records.
+	 */
+	public void read(Iterable<Long> offsets, Consumer<ByteBuffer> consumer) throws IOException {
+		long mappedIndex = -1;
+		MappedByteBuffer buffer = null;
+		for (long offset : offsets) {
+			long index = getSegment(offset);
+			if (index != mappedIndex) {
+				mappedIndex = index;
+				Path path = path(index);
+				if (!Files.exists(path)) {
+					buffer = null;
+					continue;
+				}
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+					buffer = channel.map(MapMode.READ_ONLY, 0, segmentSize);
+				}
+			}
+			if (null == buffer) {
+				continue;
+			}
+			buffer.position((int) (offset - index * segmentSize));
+			ByteBuffer record = next(buffer);
+			if (null != record) {
+				consumer.accept(record);
+			}
+		}
+	}
+
+	/**
+	 * @return Index of the segment holding the offset.
+	 */
+	public long getSegment(long offset) {
+		return offset / segmentSize;
+	}
+
+	/**
+	 * Deletes the segment if all its records are durable and it is not
+	 * written to anymore.
+	 *
+	 * @return If the segment was deleted.
+	 */
+	public boolean delete(long index) throws IOException {
+		if (index >= getSegment(committed)) {
+			return false;
+		}
+		return Files.deleteIfExists(path(index));
+	}
+
+	/**
+	 * Stops the writer after the queued records are written.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			running = false;
+			queue.add(WAKE_UP);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writer loop.
+	 */
+	private void write() {
+		List<Append> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		while (running || !queue.isEmpty()) {
+			try {
+				if (queue.isEmpty()) {
+					batch.add(queue.take());
+				}
+			} catch (InterruptedException e) {
+				// keep the flag cleared, the closing is signalled with the wake up record
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+			batch.remove(WAKE_UP);
+			if (batch.isEmpty()) {
+				continue;
+			}
+
+			long startIndex = segmentIndex;
+			int startPosition = segment.position();
+			int startEnd = segmentSize;
+			try {
+				for (Append append : batch) {
+					if (segment.remaining() < append.record.length + HEADER_SIZE) {
+						if (segmentIndex == startIndex) {
+							startEnd = segment.position();
+						}
+						roll();
+					}
+					append.offset = segmentIndex * segmentSize + segment.position();
+					CRC32 crc = new CRC32();
+					crc.update(append.record);
+					segment.putInt(append.record.length);
+					segment.putInt((int) crc.getValue());
+					segment.put(append.record);
+				}
+				segment.force();
+				committed = segmentIndex * segmentSize + segment.position();
+				for (Append append : batch) {
+					if (null != append.written) {
+						append.written.accept(append.offset);
+					}
+					append.result.complete(null);
+				}
+			} catch (Exception e) {
+				rollback(startIndex, startPosition, segmentIndex == startIndex ? segment.position() : startEnd);
+				batch.forEach(a -> a.result.completeExceptionally(e));
+			}
+			batch.clear();
+		}
+		segment.force();
+	}
+
+	/**
+	 * Forces the current segment and continues in the new one. Records are
+	 * committed only once the whole batch is forced.
+	 */
+	private void roll() throws IOException {
+		segment.force();
+		segmentIndex++;
+		segment = map(segmentIndex);
+	}
+
+	/**
+	 * Drops the records of the failed batch, so they are neither overwritten
+	 * partially by the next batch nor replayed on the start. The written part
+	 * of the segment the batch started in is zeroed and the segments started
+	 * by the batch are deleted.
+	 *
+	 * @param index
+	 *            Segment the batch started in.
+	 * @param position
+	 *            Position the batch started at, the last committed one.
+	 * @param end
+	 *            Position the batch wrote up to in that segment.
+	 */
+	private void rollback(long index, int position, int end) {
+		try {
+			for (long i = segmentIndex; i > index; i--) {
+				Files.deleteIfExists(path(i));
+			}
+			if (segmentIndex != index) {
+				segmentIndex = index;
+				segment = map(index);
+			}
+			segment.position(position);
+			for (int i = position; i < end; i++) {
+				segment.put((byte) 0);
+			}
+			segment.position(position);
+			segment.force();
+		} catch (Exception e) {
+			System.out.println("Rolling back the failed batch of the log in " + dir + " failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Maps the segment, pre-allocating the file if it does not exist.
+	 */
+	private MappedByteBuffer map(long index) throws IOException {
+		try (FileChannel channel = FileChannel.open(path(index), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			return channel.map(MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	/**
+	 * @return Path of the segment file.
+	 */
+	private Path path(long index) {
+		return dir.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * @return Segment files ordered by index.
+	 */
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private long index(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * @return Position after the last valid record in the segment.
+	 */
+	private int end(ByteBuffer segment) {
+		ByteBuffer buffer = segment.duplicate();
+		int end = 0;
+		while (null != next(buffer)) {
+			end = buffer.position();
+		}
+		return end;
+	}
+
+	/**
+	 * Reads the next record from the buffer.
+	 *
+	 * @return Record payload or <code>null</code> when end of the log is
+	 *         reached.
+	 */
+	private ByteBuffer next(ByteBuffer buffer) {
+		if (buffer.remaining() < HEADER_SIZE) {
+			return null;
+		}
+		int start = buffer.position();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if (length <= 0 || length > buffer.remaining()) {
+			buffer.position(start);
+			return null;
+		}
+
+		ByteBuffer record = buffer.slice();
+		record.limit(length);
+		CRC32 crc = new CRC32();
+		crc.update(record.duplicate());
+		if ((int) crc.getValue() != checksum) {
+			buffer.position(start);
+			return null;
+		}
+		buffer.position(buffer.position() + length);
+		return record;
+	}
+
+	private static class Append {
+
+		private final byte[] record;
+
+		private final LongConsumer written;
+
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		/**
+		 * Offset the record is written at.
+		 */
+		private long offset;
+
+		Append(byte[] record, LongConsumer written) {
+			this.record = record;
+			this.written = written;
+		}
+	}
+
+}
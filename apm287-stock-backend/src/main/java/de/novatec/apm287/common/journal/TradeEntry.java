@@ -0,0 +1,29 @@
+package de.novatec.apm287.common.journal;
+
+/**
+ * Single trade written to the {@link TradeJournal}.
+ */
+public class TradeEntry {
+
+	/**
+	 * How much balance is updated.
+	 */
+	public final double balanceUpdate;
+
+	/**
+	 * Code of the stock bought or sold.
+	 */
+	public final String code;
+
+	/**
+	 * How much holding of the stock is updated.
+	 */
+	public final int holdingUpdate;
+
+	public TradeEntry(double balanceUpdate, String code, int holdingUpdate) {
+		this.balanceUpdate = balanceUpdate;
+		this.code = code;
+		this.holdingUpdate = holdingUpdate;
+	}
+
+}
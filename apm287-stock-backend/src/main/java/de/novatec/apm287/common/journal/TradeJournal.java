@@ -0,0 +1,81 @@
+package de.novatec.apm287.common.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Durable journal of trades based on the {@link SegmentedLog}. Engines append
+ * each executed trade and replay the journal on start to restore balance and
+ * holdings. Journal without log does nothing, this is used when journaling is
+ * disabled.
+ */
+public class TradeJournal implements Closeable {
+
+	/**
+	 * Journal that does not write anything.
+	 */
+	public static final TradeJournal DISABLED = new TradeJournal(null);
+
+	/**
+	 * Log to write to, <code>null</code> when disabled.
+	 */
+	private final SegmentedLog log;
+
+	public TradeJournal(SegmentedLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Appends the trade.
+	 *
+	 * @return future completed when trade is durable
+	 */
+	public CompletableFuture<Void> append(TradeEntry entry) {
+		if (null == log) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		byte[] code = entry.code.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 2 + code.length);
+		buffer.putDouble(entry.balanceUpdate);
+		buffer.putInt(entry.holdingUpdate);
+		buffer.putShort((short) code.length);
+		buffer.put(code);
+		return log.append(buffer.array());
+	}
+
+	/**
+	 * Passes all journaled trades to the consumer in the order they were
+	 * appended.
+	 */
+	public void replay(Consumer<TradeEntry> consumer) {
+		if (null == log) {
+			return;
+		}
+
+		try {
+			log.scan(buffer -> {
+				double balanceUpdate = buffer.getDouble();
+				int holdingUpdate = buffer.getInt();
+				byte[] code = new byte[buffer.getShort()];
+				buffer.get(code);
+				consumer.accept(new TradeEntry(balanceUpdate, new String(code, StandardCharsets.UTF_8), holdingUpdate));
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not replay trade journal.", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (null != log) {
+			log.close();
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+package de.novatec.apm287.common.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Opens the trade journals of the engines, each engine gets own directory.
+ */
+@Lazy
+@Component
+public class TradeJournalFactory {
+
+	@Value("${apm287.journal.enabled}")
+	private boolean enabled;
+
+	@Value("${apm287.journal.dir}")
+	private String dir;
+
+	@Value("${apm287.journal.segmentSize}")
+	private int segmentSize;
+
+	/**
+	 * @param name
+	 *            Name of the engine.
+	 * @return Journal of the engine or {@link TradeJournal#DISABLED} when
+	 *         journaling is not enabled.
+	 */
+	public TradeJournal open(String name) {
+		if (!enabled) {
+			return TradeJournal.DISABLED;
+		}
+
+		try {
+			return new TradeJournal(new SegmentedLog(Paths.get(dir, name), segmentSize, "journal-" + name));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not open trade journal " + name + ".", e);
+		}
+	}
+
+}
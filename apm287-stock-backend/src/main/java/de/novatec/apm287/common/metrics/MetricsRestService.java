@@ -0,0 +1,26 @@
+package de.novatec.apm287.common.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Exposes all meters in the Prometheus text format.
+ */
+@RestController
+@RequestMapping("/")
+public class MetricsRestService {
+
+	@Autowired
+	PrometheusMeterRegistry registry;
+
+	@GetMapping(value = "/metrics", produces = TextFormat.CONTENT_TYPE_004)
+	public String metrics() {
+		return registry.scrape();
+	}
+
+}
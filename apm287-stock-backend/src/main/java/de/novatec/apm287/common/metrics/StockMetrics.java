@@ -0,0 +1,124 @@
+package de.novatec.apm287.common.metrics;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.TradeBatchResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Meters shared by the rest service, the stock services and the approval.
+ * Timers publish their percentiles, computed from the HdrHistogram kept by
+ * each timer, so the tail latency can be read from the <code>/metrics</code>
+ * without aggregating the buckets.
+ */
+@Component
+public class StockMetrics {
+
+	/**
+	 * Percentiles published by all timers.
+	 */
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	@Autowired
+	private MeterRegistry registry;
+
+	/**
+	 * @return Registry the meters are registered to.
+	 */
+	public MeterRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * @param tags
+	 *            Tag keys and values.
+	 * @return Timer publishing the percentiles.
+	 */
+	public Timer timer(String name, String... tags) {
+		return Timer.builder(name).tags(tags).publishPercentiles(PERCENTILES).register(registry);
+	}
+
+	/**
+	 * @return Timer of the monitor wait time of the manager, record the time
+	 *         from before entering the <code>synchronized</code> block to the
+	 *         first statement in it.
+	 */
+	public Timer lockWait(String manager) {
+		return timer("apm287.lock.wait", "manager", manager);
+	}
+
+	/**
+	 * Records the time from the start to the completion of the result.
+	 *
+	 * @param start
+	 *            Start in ns from {@link System#nanoTime()}.
+	 * @param result
+	 *            Value, {@link CompletionStage} or {@link Mono} of the value.
+	 * @return Result to return instead of the given one.
+	 */
+	public Object record(Timer timer, long start, Object result) {
+		return onComplete(result, r -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * Counts the rejections of the response of the operation,
+	 * {@link BuySellResponse} or {@link TradeBatchResponse} with the responses
+	 * of the orders. Other values are ignored.
+	 */
+	public void rejected(String operation, Object response) {
+		if (response instanceof BuySellResponse) {
+			BuySellResponse buySell = (BuySellResponse) response;
+			if (!buySell.success) {
+				rejected(operation, buySell.reason);
+			}
+		} else if (response instanceof TradeBatchResponse) {
+			TradeBatchResponse batch = (TradeBatchResponse) response;
+			if (null != batch.responses) {
+				batch.responses.forEach(r -> rejected(operation, r));
+			} else if (!batch.success) {
+				rejected(operation, batch.reason);
+			}
+		}
+	}
+
+	/**
+	 * Counts the rejection of the operation. Only the first sentence of the
+	 * reason is used as tag, so error messages do not create new counters.
+	 */
+	public void rejected(String operation, String reason) {
+		String tag = null == reason ? "Unknown." : reason;
+		int end = tag.indexOf(". ");
+		if (end >= 0) {
+			tag = tag.substring(0, end + 1);
+		}
+		registry.counter("apm287.rejections", "operation", operation, "reason", tag).increment();
+	}
+
+	/**
+	 * Runs the action with the value once the result completes, with
+	 * <code>null</code> if it completes exceptionally.
+	 *
+	 * @param result
+	 *            Value, {@link CompletionStage} or {@link Mono} of the value.
+	 * @return Result to return instead of the given one.
+	 */
+	public static Object onComplete(Object result, Consumer<Object> action) {
+		if (result instanceof CompletionStage) {
+			return ((CompletionStage<?>) result).whenComplete((r, t) -> action.accept(r));
+		} else if (result instanceof Mono) {
+			return ((Mono<?>) result).doOnSuccess(action).doOnError(t -> action.accept(null));
+		} else {
+			action.accept(result);
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package de.novatec.apm287.common.metrics;
+
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.service.IStockService;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times each operation of the stock service until its result completes and
+ * counts the rejections by reason.
+ */
+public class TimedStockService implements IStockService {
+
+	private final IStockService stockService;
+
+	private final StockMetrics metrics;
+
+	private final Timer balanceTimer;
+
+	private final Timer stockInfoTimer;
+
+	private final Timer buyTimer;
+
+	private final Timer sellTimer;
+
+	private final Timer tradesTimer;
+
+	/**
+	 * @param service
+	 *            Name of the service used as tag.
+	 */
+	public TimedStockService(IStockService stockService, String service, StockMetrics metrics) {
+		this.stockService = stockService;
+		this.metrics = metrics;
+		this.balanceTimer = timer(service, "balance");
+		this.stockInfoTimer = timer(service, "stockInfo");
+		this.buyTimer = timer(service, "buy");
+		this.sellTimer = timer(service, "sell");
+		this.tradesTimer = timer(service, "trades");
+	}
+
+	@Override
+	public Object balance() {
+		long start = System.nanoTime();
+		return metrics.record(balanceTimer, start, stockService.balance());
+	}
+
+	@Override
+	public Object stockInfo() {
+		long start = System.nanoTime();
+		return metrics.record(stockInfoTimer, start, stockService.stockInfo());
+	}
+
+	@Override
+	public Object buy(String code, int size) {
+		long start = System.nanoTime();
+		return countRejections("buy", metrics.record(buyTimer, start, stockService.buy(code, size)));
+	}
+
+	@Override
+	public Object sell(String code, int size) {
+		long start = System.nanoTime();
+		return countRejections("sell", metrics.record(sellTimer, start, stockService.sell(code, size)));
+	}
+
+	@Override
+	public Object trades(TradeBatch batch) {
+		long start = System.nanoTime();
+		return countRejections("trades", metrics.record(tradesTimer, start, stockService.trades(batch)));
+	}
+
+	private Timer timer(String service, String operation) {
+		return metrics.timer("apm287.service", "service", service, "operation", operation);
+	}
+
+	private Object countRejections(String operation, Object result) {
+		return StockMetrics.onComplete(result, r -> metrics.rejected(operation, r));
+	}
+
+}
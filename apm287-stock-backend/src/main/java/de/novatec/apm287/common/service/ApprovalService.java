@@ -1,11 +1,31 @@
 package de.novatec.apm287.common.service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.apache.commons.lang3.RandomUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.novatec.apm287.common.ApprovalRequest;
+import de.novatec.apm287.common.config.ExecutorConfiguration;
+import de.novatec.apm287.common.metrics.StockMetrics;
+import io.micrometer.core.instrument.Timer;
+
 @Component
-public class ApprovalService {
+public class ApprovalService implements IApprovalService {
 	
 	@Value("${apm287.appoval.minSleep}")
 	private long minSleep;
@@ -16,29 +36,159 @@ public class ApprovalService {
 	@Value("${apm287.appoval.approveAlways}")
 	private boolean approveAlways;
 
+	@Value("${apm287.executor}")
+	private String executor;
+
+	@Autowired
+	private StockMetrics metrics;
+
+	/**
+	 * Time of the approvals until decided, tagged by the method.
+	 */
+	private Timer approveTimer;
+
+	private Timer approveAsyncTimer;
+
+	private Timer approveBatchTimer;
+
+	/**
+	 * Timer shared by all async approvals, only hands the decided approvals to
+	 * the {@link #completer}.
+	 */
+	private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1,
+			new ThreadFactoryBuilder().setNameFormat("approval-timer").setDaemon(true).build());
+
+	/**
+	 * Completes the async approvals, so the continuations of the engines (locking
+	 * and committing the trade) do not run on the timer.
+	 */
+	private ExecutorService completer = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+			new ThreadFactoryBuilder().setNameFormat("approval-%d").setDaemon(true).build());
+
+	/**
+	 * When running with virtual threads async approvals block a virtual thread
+	 * each instead of using the timer.
+	 */
+	private ExecutorService virtualThreads;
+
+	@PostConstruct
+	public void init() {
+		approveTimer = metrics.timer("apm287.approval", "method", "approve");
+		approveAsyncTimer = metrics.timer("apm287.approval", "method", "approveAsync");
+		approveBatchTimer = metrics.timer("apm287.approval", "method", "approveBatch");
+		if (ExecutorConfiguration.VIRTUAL.equals(executor)) {
+			virtualThreads = ExecutorConfiguration.newVirtualThreadExecutor();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+		completer.shutdown();
+		if (null != virtualThreads) {
+			virtualThreads.shutdown();
+		}
+	}
+
 	/**
 	 * Approve buy.
 	 */
 	public boolean approve(String code, int size) {
+		long start = System.nanoTime();
 		sleep();
 
+		boolean approved = isApproved();
+		approveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return approved;
+	}
+
+	/**
+	 * Approve buy without blocking the calling thread. Returned stage is completed
+	 * by the completer pool (or a virtual thread) once the simulated approval
+	 * time passes.
+	 */
+	@Override
+	public CompletionStage<Boolean> approveAsync(String code, int size) {
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		long start = System.nanoTime();
+		metrics.record(approveAsyncTimer, start, result);
+		schedule(() -> result.complete(isApproved()));
+		return result;
+	}
+
+	/**
+	 * Approve many buys in one call. Batch takes the same time as a single
+	 * approval, result list has a decision for each request in the same order.
+	 */
+	@Override
+	public CompletionStage<List<Boolean>> approveBatch(List<ApprovalRequest> requests) {
+		CompletableFuture<List<Boolean>> result = new CompletableFuture<>();
+		long start = System.nanoTime();
+		metrics.record(approveBatchTimer, start, result);
+		schedule(() -> {
+			List<Boolean> approved = new ArrayList<>(requests.size());
+			for (int i = 0; i < requests.size(); i++) {
+				approved.add(isApproved());
+			}
+			result.complete(approved);
+		});
+		return result;
+	}
+
+	/**
+	 * @return Approval decision based on settings.
+	 */
+	private boolean isApproved() {
 		return approveAlways || RandomUtils.nextBoolean();
 	}
 
+	/**
+	 * Runs the task on the completer pool once approval time passes, the shared
+	 * timer only hands it over. With virtual threads the task is run on a new
+	 * virtual thread after sleeping.
+	 */
+	private void schedule(Runnable task) {
+		if (null != virtualThreads) {
+			virtualThreads.execute(() -> {
+				sleep();
+				task.run();
+			});
+			return;
+		}
+
+		long duration = getSleepDuration();
+		if (duration <= 0) {
+			task.run();
+		} else {
+			scheduler.schedule(() -> completer.execute(task), duration, TimeUnit.MILLISECONDS);
+		}
+	}
+
 	/**
 	 * Sleeps based on settings
 	 */
 	private void sleep() {
-		if (maxSleep <= 0 || minSleep > maxSleep) {
+		long duration = getSleepDuration();
+		if (duration <= 0) {
 			return;
 		}
 		
 		// sleep a bit as this takes some time
 		try {
-			long duration = RandomUtils.nextLong(minSleep, maxSleep);
 			Thread.sleep(duration, 0);
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 		}
 	}
+
+	/**
+	 * @return How long approval takes based on settings, <code>0</code> if it
+	 *         should not take any time.
+	 */
+	private long getSleepDuration() {
+		if (maxSleep <= 0 || minSleep > maxSleep) {
+			return 0;
+		}
+		return RandomUtils.nextLong(minSleep, maxSleep);
+	}
 }
@@ -0,0 +1,133 @@
+package de.novatec.apm287.common.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.novatec.apm287.common.ApprovalRequest;
+
+/**
+ * Approval client that collects concurrent approvals and sends them to the
+ * {@link ApprovalService} in one batch. Batch is sent when the window passes
+ * after the first request in the batch or when maximum batch size is reached.
+ */
+public class BatchingApprovalService implements IApprovalService {
+
+	/**
+	 * Service to send batches to.
+	 */
+	private ApprovalService approvalService;
+
+	/**
+	 * How long to collect requests in ms.
+	 */
+	private long window;
+
+	/**
+	 * Max requests in one batch.
+	 */
+	private int maxBatchSize;
+
+	/**
+	 * Batch currently collecting requests, <code>null</code> if there is none.
+	 */
+	private Batch current;
+
+	/**
+	 * Executor for sending batches when window passes.
+	 */
+	private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1,
+			new ThreadFactoryBuilder().setNameFormat("approval-batcher").setDaemon(true).build());
+
+	public BatchingApprovalService(ApprovalService approvalService, long window, int maxBatchSize) {
+		this.approvalService = approvalService;
+		this.window = window;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executorService.shutdownNow();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletionStage<Boolean> approveAsync(String code, int size) {
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		Batch full = null;
+		synchronized (this) {
+			if (null == current) {
+				Batch batch = new Batch();
+				current = batch;
+				executorService.schedule(() -> flush(batch), window, TimeUnit.MILLISECONDS);
+			}
+
+			current.add(new ApprovalRequest(code, size), result);
+			if (current.requests.size() >= maxBatchSize) {
+				full = current;
+				current = null;
+			}
+		}
+
+		if (null != full) {
+			full.send();
+		}
+		return result;
+	}
+
+	/**
+	 * Requests already batched by the caller are sent directly.
+	 */
+	@Override
+	public CompletionStage<List<Boolean>> approveBatch(List<ApprovalRequest> requests) {
+		return approvalService.approveBatch(requests);
+	}
+
+	/**
+	 * Sends the batch if it was not already sent because it was full.
+	 */
+	private void flush(Batch batch) {
+		synchronized (this) {
+			if (current != batch) {
+				return;
+			}
+			current = null;
+		}
+		batch.send();
+	}
+
+	private class Batch {
+
+		private List<ApprovalRequest> requests = new ArrayList<>();
+
+		private List<CompletableFuture<Boolean>> results = new ArrayList<>();
+
+		private void add(ApprovalRequest request, CompletableFuture<Boolean> result) {
+			requests.add(request);
+			results.add(result);
+		}
+
+		private void send() {
+			approvalService.approveBatch(requests).whenComplete((approved, t) -> {
+				for (int i = 0; i < results.size(); i++) {
+					if (null != t) {
+						results.get(i).completeExceptionally(t);
+					} else {
+						results.get(i).complete(approved.get(i));
+					}
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package de.novatec.apm287.common.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Approval client that caches approval decisions per stock code and size
+ * bucket. Entries expire after the TTL and least recently used entries are
+ * evicted when the cache reaches the maximum size. Hits, misses and evictions
+ * of the cache are bound to the registry as counters.
+ */
+public class CachingApprovalService implements IApprovalService, MeterBinder {
+
+	/**
+	 * Service to ask on cache miss.
+	 */
+	private IApprovalService approvalService;
+
+	/**
+	 * Sizes are grouped in buckets of this size.
+	 */
+	private int sizeBucket;
+
+	/**
+	 * If rejected approvals should be cached as well.
+	 */
+	private boolean cacheNegative;
+
+	/**
+	 * Cache of the decisions.
+	 */
+	private Cache<String, Boolean> cache;
+
+	/**
+	 * @param approvalService
+	 *            Service to ask on cache miss.
+	 * @param ttl
+	 *            Time to live of a decision in ms.
+	 * @param maxSize
+	 *            Max amount of cached decisions.
+	 * @param sizeBucket
+	 *            Sizes are grouped in buckets of this size.
+	 * @param cacheNegative
+	 *            If rejected approvals should be cached as well.
+	 */
+	public CachingApprovalService(IApprovalService approvalService, long ttl, long maxSize, int sizeBucket,
+			boolean cacheNegative) {
+		this.approvalService = approvalService;
+		this.sizeBucket = Math.max(1, sizeBucket);
+		this.cacheNegative = cacheNegative;
+		this.cache = CacheBuilder.newBuilder()
+				.expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+				.maximumSize(maxSize)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletionStage<Boolean> approveAsync(String code, int size) {
+		String key = code + ':' + (size / sizeBucket);
+		Boolean approved = cache.getIfPresent(key);
+		if (null != approved) {
+			return CompletableFuture.completedFuture(approved);
+		}
+
+		return approvalService.approveAsync(code, size).whenComplete((b, t) -> {
+			if (null == t && (b || cacheNegative)) {
+				cache.put(key, b);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("apm287.approval.cache.hits", this, s -> s.getStats().hitCount()).register(registry);
+		FunctionCounter.builder("apm287.approval.cache.misses", this, s -> s.getStats().missCount()).register(registry);
+		FunctionCounter.builder("apm287.approval.cache.evictions", this, s -> s.getStats().evictionCount())
+				.register(registry);
+		Gauge.builder("apm287.approval.cache.size", cache, Cache::size).register(registry);
+	}
+
+	/**
+	 * @return Hit, miss and eviction counters of the cache.
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+}
@@ -0,0 +1,29 @@
+package de.novatec.apm287.common.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+import de.novatec.apm287.common.ApprovalRequest;
+
+/**
+ * Approval client used by the stock services. Implementations can call the
+ * {@link ApprovalService} directly or add batching, caching, etc on top of it.
+ */
+public interface IApprovalService {
+
+	CompletionStage<Boolean> approveAsync(String code, int size);
+
+	/**
+	 * Approves many buys in one round, result list has a decision for each
+	 * request in the same order. By default all requests are approved
+	 * concurrently.
+	 */
+	default CompletionStage<List<Boolean>> approveBatch(List<ApprovalRequest> requests) {
+		List<CompletableFuture<Boolean>> results = requests.stream()
+				.map(r -> approveAsync(r.code, r.size).toCompletableFuture()).collect(Collectors.toList());
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+				.thenApply(v -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+	}
+}
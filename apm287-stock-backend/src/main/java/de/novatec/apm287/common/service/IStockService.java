@@ -1,9 +1,12 @@
 package de.novatec.apm287.common.service;
 
+import de.novatec.apm287.common.TradeBatch;
+
 public interface IStockService {
 
 	Object balance();
 	Object stockInfo();
 	Object buy(String code, int size);
 	Object sell(String code, int size);
+	Object trades(TradeBatch batch);
 }
@@ -0,0 +1,238 @@
+package de.novatec.apm287.common.service;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Response bodies of the <code>/stocks</code> and <code>/balance</code>
+ * rendered to JSON once per state version. Services must call
+ * {@link #invalidate()} after each price update and each trade, the next
+ * request then renders the body again. The version is also used as ETag, so
+ * clients having the current version get <code>304</code> without calling the
+ * service at all.
+ */
+@Component
+public class StockResponseCache {
+
+	/**
+	 * Jackson mapper used by Spring.
+	 */
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	/**
+	 * Start time in radix 36, part of the ETag so the tags of the previous run
+	 * are not matched after the restart.
+	 */
+	private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+	/**
+	 * Current state version.
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Body of the <code>/stocks</code>.
+	 */
+	private final CachedBody stocks = new CachedBody();
+
+	/**
+	 * Body of the <code>/balance</code>.
+	 */
+	private final CachedBody balance = new CachedBody();
+
+	/**
+	 * Requests answered with <code>304</code>.
+	 */
+	private final AtomicLong notModifiedCount = new AtomicLong();
+
+	/**
+	 * Invalidates the cached bodies, must be called after the state change.
+	 */
+	public void invalidate() {
+		version.incrementAndGet();
+	}
+
+	/**
+	 * @return Current state version.
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * @return ETag of the version.
+	 */
+	public String getETag(long version) {
+		return "\"" + epoch + "-" + version + "\"";
+	}
+
+	/**
+	 * @return Cached body of the <code>/stocks</code>.
+	 */
+	public CachedBody getStocks() {
+		return stocks;
+	}
+
+	/**
+	 * @return Cached body of the <code>/balance</code>.
+	 */
+	public CachedBody getBalance() {
+		return balance;
+	}
+
+	/**
+	 * @return Requests answered with <code>304</code>.
+	 */
+	public long getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	/**
+	 * @return If the <code>If-None-Match</code> header contains the ETag.
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (null == ifNoneMatch) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if ("*".equals(tag) || etag.equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static ResponseEntity<byte[]> ok(String etag, byte[] body) {
+		return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON).body(body);
+	}
+
+	/**
+	 * Body rendered for the version. As the service is called after the
+	 * version is read, the body has at least the state of its version.
+	 */
+	public class CachedBody {
+
+		private final AtomicReference<Rendered> rendered = new AtomicReference<>();
+
+		private final AtomicLong hitCount = new AtomicLong();
+
+		private final AtomicLong renderCount = new AtomicLong();
+
+		/**
+		 * Responds with <code>304</code> if the client has the current version,
+		 * with the cached body if already rendered, otherwise calls the service
+		 * and renders its result.
+		 *
+		 * @param ifNoneMatch
+		 *            Value of the <code>If-None-Match</code> header, can be
+		 *            <code>null</code>.
+		 * @param service
+		 *            Service call returning the value, {@link CompletionStage}
+		 *            or {@link Mono} of the value.
+		 * @return Response entity, or {@link CompletionStage} or {@link Mono}
+		 *         of it when the service is async.
+		 */
+		public Object respond(String ifNoneMatch, Supplier<Object> service) {
+			long version = getVersion();
+			String etag = getETag(version);
+			if (matches(ifNoneMatch, etag)) {
+				notModifiedCount.incrementAndGet();
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+			}
+
+			byte[] body = get(version);
+			if (null != body) {
+				return ok(etag, body);
+			}
+
+			Object value = service.get();
+			if (value instanceof CompletionStage) {
+				return ((CompletionStage<?>) value).thenApply(v -> ok(etag, render(version, v)));
+			} else if (value instanceof Mono) {
+				return ((Mono<?>) value).map(v -> ok(etag, render(version, v)));
+			} else {
+				return ok(etag, render(version, value));
+			}
+		}
+
+		/**
+		 * @return Body of the version or <code>null</code> if not rendered yet.
+		 */
+		public byte[] get(long version) {
+			Rendered current = rendered.get();
+			if (null != current && current.version == version) {
+				hitCount.incrementAndGet();
+				return current.body;
+			}
+			return null;
+		}
+
+		/**
+		 * Renders the value and keeps it if the version is not older than the
+		 * kept one.
+		 *
+		 * @return Rendered body.
+		 */
+		public byte[] render(long version, Object value) {
+			byte[] body;
+			try {
+				body = objectMapper.writeValueAsBytes(value);
+			} catch (JsonProcessingException e) {
+				throw new UncheckedIOException("Can not render " + value + ".", e);
+			}
+			renderCount.incrementAndGet();
+
+			Rendered next = new Rendered(version, body);
+			rendered.accumulateAndGet(next, (c, n) -> null == c || c.version <= n.version ? n : c);
+			return body;
+		}
+
+		/**
+		 * @return Requests answered with the already rendered body.
+		 */
+		public long getHitCount() {
+			return hitCount.get();
+		}
+
+		/**
+		 * @return Times the body was rendered.
+		 */
+		public long getRenderCount() {
+			return renderCount.get();
+		}
+
+	}
+
+	private static class Rendered {
+
+		private final long version;
+
+		private final byte[] body;
+
+		Rendered(long version, byte[] body) {
+			this.version = version;
+			this.body = body;
+		}
+
+	}
+
+}
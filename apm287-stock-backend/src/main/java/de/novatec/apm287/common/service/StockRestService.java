@@ -1,13 +1,28 @@
 package de.novatec.apm287.common.service;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import de.novatec.apm287.common.PriceUpdate;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatchResponse;
+import de.novatec.apm287.common.metrics.StockMetrics;
+import de.novatec.apm287.common.stream.PriceStream;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+
 @RestController
 @RequestMapping("/")
 public class StockRestService {
@@ -15,16 +30,53 @@ public class StockRestService {
 	@Autowired
 	IStockService stockService;
 
+	@Autowired
+	PriceStream priceStream;
+
+	@Autowired
+	StockResponseCache responseCache;
+
+	@Autowired
+	StockMetrics metrics;
+
+	/**
+	 * Max amount of orders in one trade batch.
+	 */
+	@Value("${apm287.trades.maxOrders}")
+	int maxOrders;
+
+	// time of each endpoint until the response is ready, including the response cache
+	private Timer balanceTimer;
+
+	private Timer stocksTimer;
+
+	private Timer buyTimer;
+
+	private Timer sellTimer;
+
+	private Timer tradesTimer;
+
+	@PostConstruct
+	public void init() {
+		balanceTimer = metrics.timer("apm287.requests", "endpoint", "balance");
+		stocksTimer = metrics.timer("apm287.requests", "endpoint", "stocks");
+		buyTimer = metrics.timer("apm287.requests", "endpoint", "buy");
+		sellTimer = metrics.timer("apm287.requests", "endpoint", "sell");
+		tradesTimer = metrics.timer("apm287.requests", "endpoint", "trades");
+	}
+
 	@CrossOrigin(origins = "*")
 	@GetMapping(value = "/balance", produces = MediaType.APPLICATION_JSON_VALUE)
-	public Object balance() {
-		return stockService.balance();
+	public Object balance(@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		long start = System.nanoTime();
+		return metrics.record(balanceTimer, start, responseCache.getBalance().respond(ifNoneMatch, stockService::balance));
 	}
 
 	@CrossOrigin(origins = "*")
 	@GetMapping(value = "/stocks", produces = MediaType.APPLICATION_JSON_VALUE)
-	public Object stockInfo() {
-		return stockService.stockInfo();
+	public Object stockInfo(@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		long start = System.nanoTime();
+		return metrics.record(stocksTimer, start, responseCache.getStocks().respond(ifNoneMatch, stockService::stockInfo));
 	}
 	
 	@CrossOrigin(origins = "*")
@@ -33,7 +85,8 @@ public class StockRestService {
 			@RequestParam(name = "c", required = true) String code, 
 			@RequestParam(name = "s", required = false, defaultValue = "1") int size
 		) {
-		return stockService.buy(code, size);
+		long start = System.nanoTime();
+		return metrics.record(buyTimer, start, stockService.buy(code, size));
 	}
 	
 	@CrossOrigin(origins = "*")
@@ -42,7 +95,29 @@ public class StockRestService {
 			@RequestParam(name = "c", required = true) String code, 
 			@RequestParam(name = "s", required = false, defaultValue = "1") int size
 		) {
-		return stockService.sell(code, size);
+		long start = System.nanoTime();
+		return metrics.record(sellTimer, start, stockService.sell(code, size));
+	}
+
+	@CrossOrigin(origins = "*")
+	@PostMapping(value = "/trades", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public Object trades(@RequestBody TradeBatch batch) {
+		if (null == batch.orders || null == batch.mode) {
+			metrics.rejected("trades", "Wrong batch.");
+			return new TradeBatchResponse(false, null, "Wrong batch.");
+		}
+		if (batch.orders.size() > maxOrders) {
+			metrics.rejected("trades", "Too many orders.");
+			return new TradeBatchResponse(false, null, "Too many orders.");
+		}
+		long start = System.nanoTime();
+		return metrics.record(tradesTimer, start, stockService.trades(batch));
+	}
+
+	@CrossOrigin(origins = "*")
+	@GetMapping(value = "/stream/prices", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<PriceUpdate> prices() {
+		return priceStream.subscribe();
 	}
 
 
@@ -0,0 +1,119 @@
+package de.novatec.apm287.common.stream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.novatec.apm287.common.PriceUpdate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Pushes price updates of the running service to the connected clients. Each
+ * client has a bounded buffer that keeps only the latest price per code, so
+ * slow clients get conflated updates instead of slowing down the service.
+ */
+@Component
+public class PriceStream {
+
+	/**
+	 * Max amount of codes buffered per client.
+	 */
+	@Value("${apm287.stream.bufferSize}")
+	private int bufferSize;
+
+	/**
+	 * Connected clients.
+	 */
+	private Set<Client> clients = new CopyOnWriteArraySet<>();
+
+	/**
+	 * Updates replaced by a newer price before the client took them.
+	 */
+	private AtomicLong conflated = new AtomicLong();
+
+	/**
+	 * Updates dropped because the client buffer was full.
+	 */
+	private AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Publishes the update to all connected clients.
+	 */
+	public void publish(PriceUpdate update) {
+		for (Client client : clients) {
+			client.offer(update);
+		}
+	}
+
+	/**
+	 * @return Stream of price updates for a new client.
+	 */
+	public Flux<PriceUpdate> subscribe() {
+		return Flux.create(sink -> {
+			Client client = new Client(sink);
+			clients.add(client);
+			sink.onRequest(n -> client.drain());
+			sink.onDispose(() -> clients.remove(client));
+		}, FluxSink.OverflowStrategy.ERROR);
+	}
+
+	/**
+	 * @return Amount of updates replaced by a newer price before the client
+	 *         took them.
+	 */
+	public long getConflatedCount() {
+		return conflated.get();
+	}
+
+	/**
+	 * @return Amount of updates dropped because the client buffer was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private class Client {
+
+		private FluxSink<PriceUpdate> sink;
+
+		/**
+		 * Latest not yet sent price per code.
+		 */
+		private Map<String, PriceUpdate> pending = new LinkedHashMap<>();
+
+		private Client(FluxSink<PriceUpdate> sink) {
+			this.sink = sink;
+		}
+
+		private synchronized void offer(PriceUpdate update) {
+			if (null != pending.put(update.code, update)) {
+				conflated.incrementAndGet();
+			} else if (pending.size() > bufferSize) {
+				Iterator<PriceUpdate> iterator = pending.values().iterator();
+				iterator.next();
+				iterator.remove();
+				dropped.incrementAndGet();
+			}
+			drain();
+		}
+
+		/**
+		 * Sends pending updates as long as the client requested them.
+		 */
+		private synchronized void drain() {
+			while (sink.requestedFromDownstream() > 0 && !pending.isEmpty()) {
+				Iterator<PriceUpdate> iterator = pending.values().iterator();
+				PriceUpdate update = iterator.next();
+				iterator.remove();
+				sink.next(update);
+			}
+		}
+	}
+}
@@ -1,39 +1,106 @@
 package de.novatec.apm287.java.concurrent;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
-import org.apache.commons.lang3.RandomStringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import com.google.common.util.concurrent.AtomicDouble;
 
+import de.novatec.apm287.book.OrderSettlement;
 import de.novatec.apm287.common.BalanceInfo;
 import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
 import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.ExposureTracker;
 import de.novatec.apm287.common.PriceUpdate;
 import de.novatec.apm287.common.StockInfo;
 import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.StockSnapshot;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatch.Order;
+import de.novatec.apm287.common.TradeBatchExecution;
+import de.novatec.apm287.common.TradeBatchResponse;
 import de.novatec.apm287.common.Util;
-import de.novatec.apm287.common.service.ApprovalService;
-
+import de.novatec.apm287.common.journal.TradeEntry;
+import de.novatec.apm287.common.journal.TradeJournal;
+import de.novatec.apm287.common.journal.TradeJournalFactory;
+import de.novatec.apm287.common.metrics.StockMetrics;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import io.micrometer.core.instrument.Timer;
+
+@Lazy
 @Component
-public class ConcurrentStockManager {
+public class ConcurrentStockManager implements OrderSettlement {
 
 	/**
 	 * When buy comes with more than this stock size we must approve this.
 	 */
 	private static final int APPROVE_THRESHOLD = 5;
 
+	/**
+	 * Reason for the trades reverted because the journal write failed.
+	 */
+	private static final String JOURNAL_FAILED = "Journal write failed.";
+
 	/**
 	 * Approval service.
 	 */
 	@Autowired
-	private ApprovalService approvalService;
+	private IApprovalService approvalService;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	@Autowired
+	private PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	@Autowired
+	private StockResponseCache responseCache;
+
+	/**
+	 * Factory for the trade journal.
+	 */
+	@Autowired
+	private TradeJournalFactory journalFactory;
+
+	/**
+	 * Stocks that can be traded.
+	 */
+	@Autowired
+	private StockUniverse universe;
+
+	@Autowired
+	private StockMetrics metrics;
+
+	/**
+	 * Time spent waiting for the monitors of the stocks, recorded once the
+	 * monitor is released so the recording does not lengthen the critical section.
+	 */
+	private Timer lockWait;
+
+	/**
+	 * Journal the trades are written to.
+	 */
+	private TradeJournal journal;
 
 	/**
 	 * Default balance to start with is 10.000.
@@ -41,9 +108,59 @@ public class ConcurrentStockManager {
 	private AtomicDouble balance = new AtomicDouble(10_000);
 
 	/**
-	 * Map where we hold current data.
+	 * Part of the balance reserved by the buy orders in the books.
+	 */
+	private AtomicDouble reserved = new AtomicDouble();
+
+	/**
+	 * Monitor for each stock id, guards the price and holding of the stock.
+	 */
+	private Object[] locks;
+
+	/**
+	 * Starting price for each stock id.
+	 */
+	private double[] startingPrices;
+
+	/**
+	 * Current price for each stock id.
+	 */
+	private double[] prices;
+
+	/**
+	 * Holding for each stock id.
+	 */
+	private int[] holdings;
+
+	/**
+	 * Part of the holding reserved by the sell orders in the books for each
+	 * stock id.
+	 */
+	private int[] reservedHoldings;
+
+	/**
+	 * Stamp for each stock id, incremented with each change of the stock.
+	 */
+	private long[] stamps;
+
+	/**
+	 * Snapshot of all stocks, published with each price tick and each trade.
+	 * Changes are stamped under the monitor of the stock, so they can be
+	 * published without it.
+	 */
+	private final AtomicReference<StockSnapshot> snapshot = new AtomicReference<>();
+
+	/**
+	 * Exposure updated on each price and holding change.
 	 */
-	private Map<String, StockInfo> codeToStock = new ConcurrentHashMap<>();
+	private ExposureTracker exposure = new ExposureTracker();
+
+	/**
+	 * Interval in seconds for reconciling exposure with the full scan,
+	 * <code>0</code> to disable.
+	 */
+	@Value("${apm287.exposure.reconcileInterval}")
+	private long reconcileInterval;
 
 	/**
 	 * Executor for updater.
@@ -51,129 +168,423 @@ public class ConcurrentStockManager {
 	private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
 
 	/**
-	 * Just schedule on the start.
+	 * Replays the journal and schedules price updates on the start.
 	 */
-	public ConcurrentStockManager() {
+	@PostConstruct
+	public void start() {
+		lockWait = metrics.lockWait("java-concurrent");
+		locks = new Object[universe.size()];
+		for (int id = 0; id < locks.length; id++) {
+			locks[id] = new Object();
+		}
+		startingPrices = new double[universe.size()];
+		prices = new double[universe.size()];
+		holdings = new int[universe.size()];
+		reservedHoldings = new int[universe.size()];
+		stamps = new long[universe.size()];
+
+		journal = journalFactory.open("java-concurrent");
+		journal.replay(e -> {
+			int id = universe.id(e.code);
+			if (id < 0) {
+				throw new IllegalStateException("Trade journal has a trade of the unknown stock code " + e.code
+						+ ", start with the stock universe the journal was written with.");
+			}
+			balance.addAndGet(e.balanceUpdate);
+			holdings[id] += e.holdingUpdate;
+		});
+		StockInfo[] stockInfos = new StockInfo[locks.length];
+		for (int id = 0; id < locks.length; id++) {
+			stockInfos[id] = getStockInfo(id);
+		}
+		snapshot.set(new StockSnapshot(stockInfos));
+
 		PriceUpdater updater = new PriceUpdater();
 		executorService.scheduleAtFixedRate(updater, 1, 1, TimeUnit.SECONDS);
+		if (reconcileInterval > 0) {
+			// same thread as the price updates, only trades can change exposure during the scan
+			executorService.scheduleAtFixedRate(() -> exposure.reconcile(this::getExposure), reconcileInterval,
+					reconcileInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executorService.shutdown();
+		journal.close();
 	}
 
 	/**
 	 * @return current balance info
 	 */
 	public BalanceInfoWrapper balance() {
-		BalanceInfo balanceInfo = new BalanceInfo(balance.get(), getExposure());
+		BalanceInfo balanceInfo = new BalanceInfo(balance.get(), exposure.get());
 		return new BalanceInfoWrapper(balanceInfo);
 	}
 
 	/**
-	 * @return stock info wrapper
+	 * @return stock info wrapper of the current snapshot, does not lock
 	 */
 	public StockInfoWarpper stockInfo() {
-		return new StockInfoWarpper(codeToStock.values());
+		return new StockInfoWarpper(snapshot.get().getStocks());
 	}
 
-	public BuySellResponse buy(String code, int size) {
-		StockInfo stockInfo = codeToStock.get(code);
-		if (null == stockInfo) {
-			return new BuySellResponse(false, null, "Wrong stock code.");
+	/**
+	 * Buys stocks. When approval is needed the buy is executed once the async
+	 * approval completes. Response is sent once the trade is journaled.
+	 */
+	public CompletableFuture<BuySellResponse> buy(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong stock code."));
 		}
 		if (size <= 0) {
-			return new BuySellResponse(false, null, "Wrong buy size.");
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong buy size."));
 		}
 
 		if (size > APPROVE_THRESHOLD) {
-			boolean approved = approvalService.approve(code, size);
-			if (!approved) {
-				return new BuySellResponse(false, null, "Transaction not approved.");
-			} else {
-				return executeBuy(stockInfo, size);
-			}
+			return approvalService.approveAsync(code, size).toCompletableFuture().handle((approved, t) -> {
+				if (null != t) {
+					return CompletableFuture.completedFuture(
+							new BuySellResponse(false, null, "Error during approval. " + t.getMessage()));
+				} else if (!approved) {
+					return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Transaction not approved."));
+				} else {
+					return executeBuy(id, size);
+				}
+			}).thenCompose(r -> r);
 		} else {
-			return executeBuy(stockInfo, size);
+			return executeBuy(id, size);
 		}
 	}
 
-	public BuySellResponse sell(String code, int size) {
-		StockInfo stockInfo = codeToStock.get(code);
-		if (null == stockInfo) {
-			return new BuySellResponse(false, null, "Wrong stock code.");
+	public CompletableFuture<BuySellResponse> sell(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong stock code."));
 		}
 		if (size <= 0) {
-			return new BuySellResponse(false, null, "Wrong sell size.");
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong sell size."));
 		}
 
-		synchronized (stockInfo) {
-			if (size > stockInfo.holding) {
-				return new BuySellResponse(false, null, "Insufficient stock holding.");
+		StockInfo stockInfo;
+		long stamp;
+		CompletableFuture<Boolean> journaled;
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (locks[id]) {
+				acquired = System.nanoTime();
+				if (size > holdings[id] - reservedHoldings[id]) {
+					return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Insufficient stock holding."));
+				}
+
+				double cost = prices[id] * size;
+				balance.addAndGet(cost);
+				holdings[id] -= size;
+				exposure.add(-cost);
+
+				stockInfo = getStockInfo(id);
+				stamp = ++stamps[id];
+				journaled = append(id, new TradeEntry(cost, code, -size));
 			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
+		snapshot.updateAndGet(s -> s.with(id, stockInfo, stamp));
+		responseCache.invalidate();
+		return journaled.thenApply(
+				durable -> durable ? new BuySellResponse(true, stockInfo) : new BuySellResponse(false, null, JOURNAL_FAILED));
+	}
 
-			double cost = stockInfo.price * size;
-			balance.addAndGet(cost);
-				stockInfo.holding -= size;
+	/**
+	 * Executes the batch of trades. Buys that need approval are approved in
+	 * one round before, then all orders are checked and executed holding the
+	 * monitors of all involved stocks. Response is sent once all trades are
+	 * journaled.
+	 */
+	public CompletableFuture<TradeBatchResponse> trades(TradeBatch batch) {
+		TradeBatchExecution execution = new TradeBatchExecution(batch, universe);
+		return execution.approve(approvalService::approveBatch, APPROVE_THRESHOLD).toCompletableFuture()
+				.thenCompose(this::executeTrades);
+	}
+
+	/**
+	 * Executes the approved batch of trades.
+	 */
+	private CompletableFuture<TradeBatchResponse> executeTrades(TradeBatchExecution execution) {
+		// monitors are always taken in the order of the stock id
+		int[] ids = IntStream.range(0, execution.size()).map(execution::getId).filter(id -> id >= 0).sorted().distinct()
+				.toArray();
+
+		List<CompletableFuture<Boolean>> journaled = new ArrayList<>();
+		StockInfo[] stockInfos = new StockInfo[ids.length];
+		long[] newStamps = new long[ids.length];
+		withLocks(ids, 0, () -> {
+			if (!execution.check(balance.get() - reserved.get(), id -> prices[id],
+					id -> holdings[id] - reservedHoldings[id])) {
+				return;
+			}
 
-			return new BuySellResponse(true, stockInfo);
+			for (int i = 0; i < execution.size(); i++) {
+				if (execution.isRejected(i)) {
+					continue;
+				}
+
+				Order order = execution.getOrder(i);
+				int size = order.isBuy() ? order.size : -order.size;
+				double balanceUpdate = order.isBuy() ? -execution.getCost(i) : execution.getCost(i);
+				balance.addAndGet(balanceUpdate);
+				holdings[execution.getId(i)] += size;
+				exposure.add(-balanceUpdate);
+				int index = i;
+				journaled.add(append(execution.getId(i), new TradeEntry(balanceUpdate, order.code, size))
+						.thenApply(durable -> {
+							if (!durable) {
+								execution.failed(index, JOURNAL_FAILED);
+							}
+							return durable;
+						}));
+			}
+			for (int k = 0; k < ids.length; k++) {
+				stockInfos[k] = getStockInfo(ids[k]);
+				newStamps[k] = ++stamps[ids[k]];
+			}
+			for (int i = 0; i < execution.size(); i++) {
+				if (!execution.isRejected(i)) {
+					execution.executed(i, stockInfos[Arrays.binarySearch(ids, execution.getId(i))]);
+				}
+			}
+		});
+		if (!journaled.isEmpty()) {
+			snapshot.updateAndGet(s -> s.with(ids, stockInfos, newStamps));
+			responseCache.invalidate();
 		}
+		return CompletableFuture.allOf(journaled.toArray(new CompletableFuture<?>[0])).thenApply(v -> execution.toResponse());
 	}
 
 	/**
-	 * Updates price of a single stock.
+	 * Runs the action holding the monitors of the stocks.
+	 *
+	 * @param ids
+	 *            Sorted stock ids.
 	 */
-	protected void priceUpdate(PriceUpdate update) {
-		String code = update.code;
-		StockInfo stockPrice = codeToStock.get(code);
-		if (null != stockPrice) {
-			synchronized (stockPrice) {
-				stockPrice.change = Util.getChangePercentage(stockPrice.startingPrice, update.price);
-				stockPrice.price = update.price;
+	private void withLocks(int[] ids, int index, Runnable action) {
+		if (index == ids.length) {
+			action.run();
+			return;
+		}
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (locks[ids[index]]) {
+				acquired = System.nanoTime();
+				withLocks(ids, index + 1, action);
+			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@Override
+	public String reserve(int id, boolean buy, double price, int size) {
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (locks[id]) {
+				acquired = System.nanoTime();
+				if (buy) {
+					double cost = price * size;
+					if (cost > balance.get() - reserved.get()) {
+						return "Insufficient balance.";
+					}
+					reserved.addAndGet(cost);
+				} else {
+					if (size > holdings[id] - reservedHoldings[id]) {
+						return "Insufficient stock holding.";
+					}
+					reservedHoldings[id] += size;
+				}
+				return null;
 			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@Override
+	public void release(int id, boolean buy, double price, int size) {
+		if (buy) {
+			reserved.addAndGet(-price * size);
 		} else {
-			stockPrice = new StockInfo(code, update.price);
-			codeToStock.putIfAbsent(code, stockPrice);
+			synchronized (locks[id]) {
+				reservedHoldings[id] -= size;
+			}
 		}
 	}
 
+	/**
+	 * Settles the fill like a trade, it is journaled and published as well.
+	 */
+	@Override
+	public void settle(int id, boolean buy, double limitPrice, double price, int size) {
+		StockInfo stockInfo;
+		long stamp;
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (locks[id]) {
+				acquired = System.nanoTime();
+				release(id, buy, limitPrice, size);
+				double balanceUpdate = buy ? -price * size : price * size;
+				int holdingUpdate = buy ? size : -size;
+				balance.addAndGet(balanceUpdate);
+				holdings[id] += holdingUpdate;
+				exposure.add(prices[id] * holdingUpdate);
+
+				stockInfo = getStockInfo(id);
+				stamp = ++stamps[id];
+				append(id, new TradeEntry(balanceUpdate, universe.code(id), holdingUpdate));
+			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
+		snapshot.updateAndGet(s -> s.with(id, stockInfo, stamp));
+		responseCache.invalidate();
+	}
+
+	/**
+	 * Updates prices of all stocks and publishes them with one snapshot.
+	 *
+	 * @param newPrices
+	 *            Price for each stock id.
+	 */
+	protected void priceUpdates(double[] newPrices) {
+		int[] ids = new int[newPrices.length];
+		StockInfo[] stockInfos = new StockInfo[newPrices.length];
+		long[] newStamps = new long[newPrices.length];
+		for (int id = 0; id < newPrices.length; id++) {
+			synchronized (locks[id]) {
+				if (0 == startingPrices[id]) {
+					startingPrices[id] = newPrices[id];
+				}
+				exposure.add((newPrices[id] - prices[id]) * holdings[id]);
+				prices[id] = newPrices[id];
+
+				ids[id] = id;
+				stockInfos[id] = getStockInfo(id);
+				newStamps[id] = ++stamps[id];
+			}
+		}
+		snapshot.updateAndGet(s -> s.with(ids, stockInfos, newStamps));
+		responseCache.invalidate();
+	}
+
 	/**
 	 * When approved does the buy.
 	 */
-	private BuySellResponse executeBuy(StockInfo stockInfo, int size) {
-		synchronized (stockInfo) {
-			double cost = stockInfo.price * size;
-			if (cost > balance.get()) {
-				return new BuySellResponse(false, null, "Insufficient balance.");
+	private CompletableFuture<BuySellResponse> executeBuy(int id, int size) {
+		StockInfo stockInfo;
+		long stamp;
+		CompletableFuture<Boolean> journaled;
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (locks[id]) {
+				acquired = System.nanoTime();
+				double cost = prices[id] * size;
+				if (cost > balance.get() - reserved.get()) {
+					return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Insufficient balance."));
+				}
+
+				balance.addAndGet(-cost);
+				holdings[id] += size;
+				exposure.add(cost);
+
+				stockInfo = getStockInfo(id);
+				stamp = ++stamps[id];
+				journaled = append(id, new TradeEntry(-cost, universe.code(id), size));
 			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
+		snapshot.updateAndGet(s -> s.with(id, stockInfo, stamp));
+		responseCache.invalidate();
+		return journaled.thenApply(
+				durable -> durable ? new BuySellResponse(true, stockInfo) : new BuySellResponse(false, null, JOURNAL_FAILED));
+	}
 
-			balance.addAndGet(-cost);
-			stockInfo.holding += size;
-			
-			return new BuySellResponse(true, stockInfo);
+	/**
+	 * Journals the trade already applied to the balance and holdings. When
+	 * the write fails the journal drops the trade, so it is reverted here as
+	 * well to keep the state the journal restores on the start.
+	 *
+	 * @return Future completed with <code>true</code> when the trade is
+	 *         durable, <code>false</code> when it was reverted.
+	 */
+	private CompletableFuture<Boolean> append(int id, TradeEntry entry) {
+		return journal.append(entry).handle((v, t) -> {
+			if (null == t) {
+				return true;
+			}
+			System.out.println("Journal write failed, reverting the trade of " + entry.code + ": " + t.getMessage());
+			revert(id, entry);
+			return false;
+		});
+	}
+
+	/**
+	 * Reverts the trade and publishes the stock.
+	 */
+	private void revert(int id, TradeEntry entry) {
+		StockInfo stockInfo;
+		long stamp;
+		synchronized (locks[id]) {
+			balance.addAndGet(-entry.balanceUpdate);
+			holdings[id] -= entry.holdingUpdate;
+			exposure.add(-prices[id] * entry.holdingUpdate);
+			stockInfo = getStockInfo(id);
+			stamp = ++stamps[id];
 		}
+		snapshot.updateAndGet(s -> s.with(id, stockInfo, stamp));
+		responseCache.invalidate();
+	}
+
+	/**
+	 * @return Stock info with the current data of the stock, must be called
+	 *         holding the monitor of the stock.
+	 */
+	private StockInfo getStockInfo(int id) {
+		StockInfo stockInfo = new StockInfo(universe.code(id), startingPrices[id]);
+		stockInfo.price = prices[id];
+		stockInfo.change = Util.getChangePercentage(stockInfo.startingPrice, stockInfo.price);
+		stockInfo.holding = holdings[id];
+		return stockInfo;
 	}
 
 	/**
-	 * @return Current exposure in stocks.
+	 * @return Current exposure in stocks computed from all stocks.
 	 */
 	private double getExposure() {
-		return codeToStock.values().stream().mapToDouble(s -> s.price * s.holding).sum();
+		double exposure = 0;
+		for (int id = 0; id < locks.length; id++) {
+			synchronized (locks[id]) {
+				exposure += prices[id] * holdings[id];
+			}
+		}
+		return exposure;
 	}
 
 	private class PriceUpdater implements Runnable {
 
 		/**
-		 * Codes to generate prices for.
-		 */
-		private String[] codes;
-
-		/**
-		 * Price for each code.
+		 * Price for each stock id.
 		 */
 		private double[] prices;
 
 		public PriceUpdater() {
-			codes = new String[5];
-			prices = new double[codes.length];
-			for (int i = 0; i < codes.length; i++) {
-				codes[i] = RandomStringUtils.randomAlphabetic(3).toUpperCase();
+			prices = new double[universe.size()];
+			for (int i = 0; i < prices.length; i++) {
 				prices[i] = 100.0d;
 			}
 
@@ -182,7 +593,7 @@ public class ConcurrentStockManager {
 
 		@Override
 		public void run() {
-			for (int i = 0; i < codes.length; i++) {
+			for (int i = 0; i < prices.length; i++) {
 				prices[i] = Util.getUpdatedPrice(prices[i]);
 			}
 
@@ -190,9 +601,9 @@ public class ConcurrentStockManager {
 		}
 
 		private void sendUpdates() {
+			priceUpdates(prices);
 			for (int i = 0; i < prices.length; i++) {
-				PriceUpdate priceUpdate = new PriceUpdate(codes[i], prices[i]);
-				priceUpdate(priceUpdate);
+				priceStream.publish(new PriceUpdate(universe.code(i), prices[i]));
 			}
 		}
 
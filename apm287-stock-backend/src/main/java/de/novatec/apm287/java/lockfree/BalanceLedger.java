@@ -0,0 +1,72 @@
+package de.novatec.apm287.java.lockfree;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Balance kept as fixed-point amount of micro-units and updated with
+ * compare-and-set, so the balance can never go below zero.
+ */
+public class BalanceLedger {
+
+	/**
+	 * Micro-units in one unit of balance.
+	 */
+	public static final long MICROS = 1_000_000L;
+
+	/**
+	 * Current balance in micro-units.
+	 */
+	private final AtomicLong balance;
+
+	/**
+	 * @param initial
+	 *            Balance to start with.
+	 */
+	public BalanceLedger(double initial) {
+		this.balance = new AtomicLong(toMicros(initial));
+	}
+
+	/**
+	 * Takes the amount from the balance if there is enough balance.
+	 * 
+	 * @param amount
+	 *            Amount in micro-units.
+	 * @return <code>true</code> if debit was done, <code>false</code> if there
+	 *         is not enough balance
+	 */
+	public boolean debit(long amount) {
+		while (true) {
+			long current = balance.get();
+			if (amount > current) {
+				return false;
+			}
+			if (balance.compareAndSet(current, current - amount)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds the amount to the balance.
+	 * 
+	 * @param amount
+	 *            Amount in micro-units.
+	 */
+	public void credit(long amount) {
+		balance.addAndGet(amount);
+	}
+
+	/**
+	 * @return Current balance.
+	 */
+	public double get() {
+		return (double) balance.get() / MICROS;
+	}
+
+	/**
+	 * @return Given amount in micro-units.
+	 */
+	public static long toMicros(double amount) {
+		return Math.round(amount * MICROS);
+	}
+}
@@ -0,0 +1,282 @@
+package de.novatec.apm287.java.lockfree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import de.novatec.apm287.common.BalanceInfo;
+import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.PriceUpdate;
+import de.novatec.apm287.common.StockInfo;
+import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatch.Mode;
+import de.novatec.apm287.common.TradeBatch.Order;
+import de.novatec.apm287.common.TradeBatchExecution;
+import de.novatec.apm287.common.TradeBatchResponse;
+import de.novatec.apm287.common.Util;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+
+/**
+ * Stock manager that does not take any monitor. Stocks are identified by the
+ * id in the {@link StockUniverse}, prices and holdings are kept in atomic
+ * arrays and the balance in the {@link BalanceLedger}.
+ */
+@Lazy
+@Component
+public class LockFreeStockManager {
+
+	/**
+	 * When buy comes with more than this stock size we must approve this.
+	 */
+	private static final int APPROVE_THRESHOLD = 5;
+
+	/**
+	 * Approval service.
+	 */
+	@Autowired
+	private IApprovalService approvalService;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	@Autowired
+	private PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	@Autowired
+	private StockResponseCache responseCache;
+
+	/**
+	 * Default balance to start with is 10.000.
+	 */
+	private BalanceLedger balance = new BalanceLedger(10_000);
+
+	/**
+	 * Stocks that can be traded.
+	 */
+	@Autowired
+	private StockUniverse universe;
+
+	/**
+	 * Starting price for each stock id.
+	 */
+	private double[] startingPrices;
+
+	/**
+	 * Current price bits for each stock id.
+	 */
+	private AtomicLongArray prices;
+
+	/**
+	 * Holding for each stock id.
+	 */
+	private AtomicIntegerArray holdings;
+
+	/**
+	 * Executor for updater.
+	 */
+	private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+
+	/**
+	 * Sets starting prices and schedules price updates on the start.
+	 */
+	@PostConstruct
+	public void start() {
+		startingPrices = new double[universe.size()];
+		prices = new AtomicLongArray(universe.size());
+		holdings = new AtomicIntegerArray(universe.size());
+		for (int i = 0; i < startingPrices.length; i++) {
+			startingPrices[i] = 100.0d;
+			prices.set(i, Double.doubleToRawLongBits(startingPrices[i]));
+		}
+
+		PriceUpdater updater = new PriceUpdater();
+		executorService.scheduleAtFixedRate(updater, 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return current balance info
+	 */
+	public BalanceInfoWrapper balance() {
+		BalanceInfo balanceInfo = new BalanceInfo(balance.get(), getExposure());
+		return new BalanceInfoWrapper(balanceInfo);
+	}
+
+	/**
+	 * @return stock info wrapper
+	 */
+	public StockInfoWarpper stockInfo() {
+		List<StockInfo> stockInfos = new ArrayList<>(startingPrices.length);
+		for (int i = 0; i < startingPrices.length; i++) {
+			stockInfos.add(getStockInfo(i));
+		}
+		return new StockInfoWarpper(stockInfos);
+	}
+
+	public CompletableFuture<BuySellResponse> buy(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong stock code."));
+		}
+		if (size <= 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong buy size."));
+		}
+
+		if (size > APPROVE_THRESHOLD) {
+			return approvalService.approveAsync(code, size).handle((approved, t) -> {
+				if (null != t) {
+					return new BuySellResponse(false, null, "Error during approval. " + t.getMessage());
+				} else if (!approved) {
+					return new BuySellResponse(false, null, "Transaction not approved.");
+				} else {
+					return executeBuy(id, size);
+				}
+			}).toCompletableFuture();
+		} else {
+			return CompletableFuture.completedFuture(executeBuy(id, size));
+		}
+	}
+
+	public BuySellResponse sell(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return new BuySellResponse(false, null, "Wrong stock code.");
+		}
+		if (size <= 0) {
+			return new BuySellResponse(false, null, "Wrong sell size.");
+		}
+
+		return executeSell(id, size);
+	}
+
+	/**
+	 * Executes the batch of trades. Buys that need approval are approved in
+	 * one round before, then each order is executed on its own, so only the
+	 * best effort mode is supported.
+	 */
+	public CompletableFuture<TradeBatchResponse> trades(TradeBatch batch) {
+		if (Mode.ALL_OR_NOTHING == batch.mode) {
+			return CompletableFuture.completedFuture(
+					new TradeBatchResponse(false, null, "All-or-nothing batches are not supported by this service."));
+		}
+
+		TradeBatchExecution execution = new TradeBatchExecution(batch, universe);
+		return execution.approve(approvalService::approveBatch, APPROVE_THRESHOLD).thenApply(e -> {
+			for (int i = 0; i < e.size(); i++) {
+				if (!e.isRejected(i)) {
+					Order order = e.getOrder(i);
+					e.executed(i, order.isBuy() ? executeBuy(e.getId(i), order.size) : executeSell(e.getId(i), order.size));
+				}
+			}
+			return e.toResponse();
+		}).toCompletableFuture();
+	}
+
+	/**
+	 * Does the sell.
+	 */
+	private BuySellResponse executeSell(int id, int size) {
+		while (true) {
+			int holding = holdings.get(id);
+			if (size > holding) {
+				return new BuySellResponse(false, null, "Insufficient stock holding.");
+			}
+			if (holdings.compareAndSet(id, holding, holding - size)) {
+				break;
+			}
+		}
+
+		long cost = BalanceLedger.toMicros(getPrice(id) * size);
+		balance.credit(cost);
+		responseCache.invalidate();
+
+		return new BuySellResponse(true, getStockInfo(id));
+	}
+
+	/**
+	 * Updates price of a single stock.
+	 */
+	protected void priceUpdate(PriceUpdate update) {
+		int id = universe.id(update.code);
+		if (id >= 0) {
+			prices.set(id, Double.doubleToRawLongBits(update.price));
+			responseCache.invalidate();
+			priceStream.publish(update);
+		}
+	}
+
+	/**
+	 * When approved does the buy.
+	 */
+	private BuySellResponse executeBuy(int id, int size) {
+		long cost = BalanceLedger.toMicros(getPrice(id) * size);
+		if (!balance.debit(cost)) {
+			return new BuySellResponse(false, null, "Insufficient balance.");
+		}
+
+		holdings.addAndGet(id, size);
+		responseCache.invalidate();
+
+		return new BuySellResponse(true, getStockInfo(id));
+	}
+
+	/**
+	 * @return Current price of the stock.
+	 */
+	private double getPrice(int id) {
+		return Double.longBitsToDouble(prices.get(id));
+	}
+
+	/**
+	 * @return Stock info with the current data of the stock.
+	 */
+	private StockInfo getStockInfo(int id) {
+		StockInfo stockInfo = new StockInfo(universe.code(id), startingPrices[id]);
+		stockInfo.price = getPrice(id);
+		stockInfo.change = Util.getChangePercentage(stockInfo.startingPrice, stockInfo.price);
+		stockInfo.holding = holdings.get(id);
+		return stockInfo;
+	}
+
+	/**
+	 * @return Current exposure in stocks.
+	 */
+	private double getExposure() {
+		double exposure = 0;
+		for (int i = 0; i < startingPrices.length; i++) {
+			exposure += getPrice(i) * holdings.get(i);
+		}
+		return exposure;
+	}
+
+	private class PriceUpdater implements Runnable {
+
+		@Override
+		public void run() {
+			for (int i = 0; i < startingPrices.length; i++) {
+				PriceUpdate priceUpdate = new PriceUpdate(universe.code(i), Util.getUpdatedPrice(getPrice(i)));
+				priceUpdate(priceUpdate);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,287 @@
+package de.novatec.apm287.java.partitioned;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import de.novatec.apm287.common.BalanceInfo;
+import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.StockInfo;
+import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatch.Mode;
+import de.novatec.apm287.common.TradeBatch.Order;
+import de.novatec.apm287.common.TradeBatchExecution;
+import de.novatec.apm287.common.TradeBatchResponse;
+import de.novatec.apm287.common.Util;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import de.novatec.apm287.java.lockfree.BalanceLedger;
+
+/**
+ * Stock manager that splits the stocks across partitions, each owned by a
+ * single event loop. Trades of a stock run on its partition only, balance is
+ * the only state shared between partitions and is updated with the
+ * {@link BalanceLedger} compare-and-set protocol.
+ */
+@Lazy
+@Component
+public class PartitionedStockManager {
+
+	/**
+	 * When buy comes with more than this stock size we must approve this.
+	 */
+	private static final int APPROVE_THRESHOLD = 5;
+
+	/**
+	 * Approval service.
+	 */
+	@Autowired
+	private IApprovalService approvalService;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	@Autowired
+	private PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	@Autowired
+	private StockResponseCache responseCache;
+
+	/**
+	 * Stocks that can be traded.
+	 */
+	@Autowired
+	private StockUniverse universe;
+
+	/**
+	 * Default balance to start with is 10.000.
+	 */
+	private BalanceLedger balance = new BalanceLedger(10_000);
+
+	/**
+	 * All partitions.
+	 */
+	private StockPartition[] partitions;
+
+	/**
+	 * Executor for updater.
+	 */
+	private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+
+	/**
+	 * @param partitionCount
+	 *            Amount of partitions, when <code>0</code> or less amount of
+	 *            available processors is used.
+	 */
+	@Autowired
+	public PartitionedStockManager(@Value("${apm287.partitioned.partitions}") int partitionCount) {
+		if (partitionCount <= 0) {
+			partitionCount = Runtime.getRuntime().availableProcessors();
+		}
+		partitions = new StockPartition[partitionCount];
+	}
+
+	/**
+	 * Creates partitions and schedules price updates on the start.
+	 */
+	@PostConstruct
+	public void start() {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i] = new StockPartition(i, partitions.length, universe.size(), balance, priceStream,
+					responseCache);
+		}
+
+		PriceUpdater updater = new PriceUpdater();
+		executorService.scheduleAtFixedRate(updater, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executorService.shutdown();
+		for (StockPartition partition : partitions) {
+			partition.shutdown();
+		}
+	}
+
+	/**
+	 * @return future completed with current balance info
+	 */
+	public CompletableFuture<BalanceInfoWrapper> balance() {
+		CompletableFuture<Double> exposure = CompletableFuture.completedFuture(0.0d);
+		for (StockPartition partition : partitions) {
+			exposure = exposure.thenCombine(partition.submit(partition::getExposure), Double::sum);
+		}
+		return exposure.thenApply(e -> new BalanceInfoWrapper(new BalanceInfo(balance.get(), e)));
+	}
+
+	/**
+	 * @return future completed with stock info wrapper
+	 */
+	public CompletableFuture<StockInfoWarpper> stockInfo() {
+		CompletableFuture<List<StockInfo>> stockInfos = CompletableFuture.completedFuture(new ArrayList<>());
+		for (StockPartition partition : partitions) {
+			stockInfos = stockInfos.thenCombine(partition.submit(partition::stockInfo), (all, p) -> {
+				all.addAll(p);
+				return all;
+			});
+		}
+		return stockInfos.thenApply(StockInfoWarpper::new);
+	}
+
+	public CompletableFuture<BuySellResponse> buy(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong stock code."));
+		}
+		StockPartition partition = getPartition(id);
+		if (size <= 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong buy size."));
+		}
+
+		if (size > APPROVE_THRESHOLD) {
+			return approvalService.approveAsync(code, size).toCompletableFuture().handle((approved, t) -> {
+				if (null != t) {
+					return CompletableFuture.completedFuture(
+							new BuySellResponse(false, null, "Error during approval. " + t.getMessage()));
+				} else if (!approved) {
+					return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Transaction not approved."));
+				} else {
+					return partition.submit(() -> partition.executeBuy(id, size));
+				}
+			}).thenCompose(r -> r);
+		} else {
+			return partition.submit(() -> partition.executeBuy(id, size));
+		}
+	}
+
+	public CompletableFuture<BuySellResponse> sell(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong stock code."));
+		}
+		StockPartition partition = getPartition(id);
+		if (size <= 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong sell size."));
+		}
+
+		return partition.submit(() -> partition.executeSell(id, size));
+	}
+
+	/**
+	 * Executes the batch of trades. Buys that need approval are approved in
+	 * one round before, then orders are submitted with one task per involved
+	 * partition, executed in the batch order within the partition. As orders
+	 * of different partitions run in parallel only the best effort mode is
+	 * supported.
+	 */
+	public CompletableFuture<TradeBatchResponse> trades(TradeBatch batch) {
+		if (Mode.ALL_OR_NOTHING == batch.mode) {
+			return CompletableFuture.completedFuture(
+					new TradeBatchResponse(false, null, "All-or-nothing batches are not supported by this service."));
+		}
+
+		TradeBatchExecution execution = new TradeBatchExecution(batch, universe);
+		return execution.approve(approvalService::approveBatch, APPROVE_THRESHOLD).toCompletableFuture()
+				.thenCompose(this::executeTrades);
+	}
+
+	/**
+	 * Executes the approved batch of trades on the partitions.
+	 */
+	private CompletableFuture<TradeBatchResponse> executeTrades(TradeBatchExecution execution) {
+		List<List<Integer>> indexes = new ArrayList<>(partitions.length);
+		for (int p = 0; p < partitions.length; p++) {
+			indexes.add(new ArrayList<>());
+		}
+		for (int i = 0; i < execution.size(); i++) {
+			if (!execution.isRejected(i)) {
+				indexes.get(execution.getId(i) % partitions.length).add(i);
+			}
+		}
+
+		List<CompletableFuture<Void>> executed = new ArrayList<>();
+		for (int p = 0; p < partitions.length; p++) {
+			List<Integer> partitionIndexes = indexes.get(p);
+			if (partitionIndexes.isEmpty()) {
+				continue;
+			}
+
+			StockPartition partition = partitions[p];
+			executed.add(partition.submit(() -> {
+				for (int i : partitionIndexes) {
+					Order order = execution.getOrder(i);
+					int id = execution.getId(i);
+					execution.executed(i, order.isBuy() ? partition.executeBuy(id, order.size)
+							: partition.executeSell(id, order.size));
+				}
+				return null;
+			}));
+		}
+		return CompletableFuture.allOf(executed.toArray(new CompletableFuture<?>[0])).thenApply(v -> execution.toResponse());
+	}
+
+	/**
+	 * @return Partition owning the stock.
+	 */
+	private StockPartition getPartition(int id) {
+		return partitions[id % partitions.length];
+	}
+
+	private class PriceUpdater implements Runnable {
+
+		/**
+		 * Price for each stock id.
+		 */
+		private double[] prices;
+
+		public PriceUpdater() {
+			prices = new double[universe.size()];
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = 100.0d;
+			}
+
+			sendUpdates();
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = Util.getUpdatedPrice(prices[i]);
+			}
+
+			sendUpdates();
+		}
+
+		private void sendUpdates() {
+			for (int i = 0; i < prices.length; i++) {
+				int id = i;
+				double price = prices[i];
+				StockPartition partition = getPartition(id);
+				partition.submit(() -> {
+					partition.priceUpdate(id, universe.code(id), price);
+					return null;
+				});
+			}
+		}
+
+	}
+
+}
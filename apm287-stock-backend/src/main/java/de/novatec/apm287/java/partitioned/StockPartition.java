@@ -0,0 +1,181 @@
+package de.novatec.apm287.java.partitioned;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.PriceUpdate;
+import de.novatec.apm287.common.StockInfo;
+import de.novatec.apm287.common.Util;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import de.novatec.apm287.java.lockfree.BalanceLedger;
+
+/**
+ * Partition of the stocks owned by a single event loop thread. Stock info and
+ * holdings of the partition are only touched by that thread, the only shared
+ * state is the {@link BalanceLedger}. Partition owns stock ids where
+ * <code>id % partitionCount == index</code>.
+ */
+public class StockPartition {
+
+	/**
+	 * Balance shared by all partitions.
+	 */
+	private final BalanceLedger balance;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	private final PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	private final StockResponseCache responseCache;
+
+	/**
+	 * Amount of partitions.
+	 */
+	private final int partitionCount;
+
+	/**
+	 * Data of the stocks in this partition, index is
+	 * <code>id / partitionCount</code>, <code>null</code> until the stock is
+	 * priced.
+	 */
+	private final StockInfo[] stocks;
+
+	/**
+	 * Event loop of this partition.
+	 */
+	private final ExecutorService eventLoop;
+
+	/**
+	 * @param index
+	 *            Index of the partition.
+	 * @param partitionCount
+	 *            Amount of partitions.
+	 * @param stockCount
+	 *            Amount of stocks in all partitions.
+	 * @param balance
+	 *            Balance shared by all partitions.
+	 * @param priceStream
+	 *            Stream to publish price updates to.
+	 * @param responseCache
+	 *            Cache of the rendered responses.
+	 */
+	public StockPartition(int index, int partitionCount, int stockCount, BalanceLedger balance,
+			PriceStream priceStream, StockResponseCache responseCache) {
+		this.partitionCount = partitionCount;
+		this.stocks = new StockInfo[(stockCount + partitionCount - 1) / partitionCount];
+		this.balance = balance;
+		this.priceStream = priceStream;
+		this.responseCache = responseCache;
+		this.eventLoop = Executors.newSingleThreadExecutor(
+				new ThreadFactoryBuilder().setNameFormat("stock-partition-" + index).setDaemon(true).build());
+	}
+
+	/**
+	 * Runs the task on the event loop of the partition.
+	 * 
+	 * @return future completed with the task result
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> task) {
+		return CompletableFuture.supplyAsync(task, eventLoop);
+	}
+
+	/**
+	 * Stops the event loop.
+	 */
+	public void shutdown() {
+		eventLoop.shutdown();
+	}
+
+	/**
+	 * Must be called on the event loop.
+	 * 
+	 * @return Copies of the stock infos in this partition.
+	 */
+	public List<StockInfo> stockInfo() {
+		List<StockInfo> stockInfos = new ArrayList<>(stocks.length);
+		for (StockInfo stockInfo : stocks) {
+			if (null != stockInfo) {
+				stockInfos.add(new StockInfo(stockInfo));
+			}
+		}
+		return stockInfos;
+	}
+
+	/**
+	 * Must be called on the event loop.
+	 * 
+	 * @return Exposure of the stocks in this partition.
+	 */
+	public double getExposure() {
+		double exposure = 0;
+		for (StockInfo stockInfo : stocks) {
+			if (null != stockInfo) {
+				exposure += stockInfo.price * stockInfo.holding;
+			}
+		}
+		return exposure;
+	}
+
+	/**
+	 * Does the buy, balance is taken from the shared ledger. Must be called on
+	 * the event loop.
+	 */
+	public BuySellResponse executeBuy(int id, int size) {
+		StockInfo stockInfo = stocks[id / partitionCount];
+		long cost = BalanceLedger.toMicros(stockInfo.price * size);
+		if (!balance.debit(cost)) {
+			return new BuySellResponse(false, null, "Insufficient balance.");
+		}
+
+		stockInfo.holding += size;
+		responseCache.invalidate();
+
+		return new BuySellResponse(true, new StockInfo(stockInfo));
+	}
+
+	/**
+	 * Does the sell, balance is given back to the shared ledger. Must be called
+	 * on the event loop.
+	 */
+	public BuySellResponse executeSell(int id, int size) {
+		StockInfo stockInfo = stocks[id / partitionCount];
+		if (size > stockInfo.holding) {
+			return new BuySellResponse(false, null, "Insufficient stock holding.");
+		}
+
+		stockInfo.holding -= size;
+		balance.credit(BalanceLedger.toMicros(stockInfo.price * size));
+		responseCache.invalidate();
+
+		return new BuySellResponse(true, new StockInfo(stockInfo));
+	}
+
+	/**
+	 * Updates price of a single stock. Must be called on the event loop.
+	 */
+	public void priceUpdate(int id, String code, double price) {
+		StockInfo stockPrice = stocks[id / partitionCount];
+		if (null != stockPrice) {
+			stockPrice.change = Util.getChangePercentage(stockPrice.startingPrice, price);
+			stockPrice.price = price;
+		} else {
+			stockPrice = new StockInfo(code, price);
+			stocks[id / partitionCount] = stockPrice;
+		}
+		responseCache.invalidate();
+		priceStream.publish(new PriceUpdate(code, price));
+	}
+
+}
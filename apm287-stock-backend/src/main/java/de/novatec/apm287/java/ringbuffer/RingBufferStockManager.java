@@ -0,0 +1,417 @@
+package de.novatec.apm287.java.ringbuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+
+import de.novatec.apm287.common.BalanceInfo;
+import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.PriceUpdate;
+import de.novatec.apm287.common.StockInfo;
+import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatch.Order;
+import de.novatec.apm287.common.TradeBatchExecution;
+import de.novatec.apm287.common.Util;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import de.novatec.apm287.java.ringbuffer.StockCommand.Type;
+
+/**
+ * Stock manager where all commands are published to a pre-allocated ring
+ * buffer and processed in batches by a single business logic thread. Only
+ * that thread touches the stock data, thus there is no locking.
+ */
+@Lazy
+@Component
+public class RingBufferStockManager {
+
+	/**
+	 * When buy comes with more than this stock size we must approve this.
+	 */
+	private static final int APPROVE_THRESHOLD = 5;
+
+	/**
+	 * Approval service.
+	 */
+	@Autowired
+	private IApprovalService approvalService;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	@Autowired
+	private PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	@Autowired
+	private StockResponseCache responseCache;
+
+	/**
+	 * Stocks that can be traded.
+	 */
+	@Autowired
+	private StockUniverse universe;
+
+	/**
+	 * Default balance to start with is 10.000. Only accessed by business logic
+	 * thread.
+	 */
+	private double balance = 10_000;
+
+	/**
+	 * Current data for each stock id, <code>null</code> until the stock is
+	 * priced. Only accessed by business logic thread.
+	 */
+	private StockInfo[] stocks;
+
+	/**
+	 * Disruptor running the business logic thread.
+	 */
+	private Disruptor<StockCommand> disruptor;
+
+	/**
+	 * Ring buffer to publish commands to.
+	 */
+	private RingBuffer<StockCommand> ringBuffer;
+
+	/**
+	 * Executor for updater.
+	 */
+	private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+
+	/**
+	 * Publishes the approved buys and trades back to the ring buffer. Approval
+	 * can complete on the business logic thread itself (cached or instant
+	 * approval), which must never block on publishing to its own full ring, or
+	 * on the approval threads, which must not stall other approvals.
+	 */
+	private ExecutorService approvalExecutor = Executors.newSingleThreadExecutor(DaemonThreadFactory.INSTANCE);
+
+	/**
+	 * Creates the ring buffer.
+	 * 
+	 * @param bufferSize
+	 *            Size of the ring buffer, must be power of 2.
+	 */
+	@SuppressWarnings("unchecked")
+	@Autowired
+	public RingBufferStockManager(@Value("${apm287.ringbuffer.size}") int bufferSize) {
+		disruptor = new Disruptor<>(StockCommand::new, bufferSize, DaemonThreadFactory.INSTANCE, ProducerType.MULTI,
+				new BlockingWaitStrategy());
+		disruptor.handleEventsWith(new BusinessLogicHandler());
+	}
+
+	/**
+	 * Starts the business logic thread and schedules price updates.
+	 */
+	@PostConstruct
+	public void start() {
+		stocks = new StockInfo[universe.size()];
+		ringBuffer = disruptor.start();
+
+		PriceUpdater updater = new PriceUpdater();
+		executorService.scheduleAtFixedRate(updater, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executorService.shutdown();
+		disruptor.shutdown();
+		approvalExecutor.shutdown();
+	}
+
+	/**
+	 * @return future completed with current balance info
+	 */
+	public CompletableFuture<Object> balance() {
+		return publish(Type.BALANCE, null, 0, 0);
+	}
+
+	/**
+	 * @return future completed with stock info wrapper
+	 */
+	public CompletableFuture<Object> stockInfo() {
+		return publish(Type.STOCK_INFO, null, 0, 0);
+	}
+
+	public CompletableFuture<Object> buy(String code, int size) {
+		return publish(Type.BUY, code, size, 0);
+	}
+
+	public CompletableFuture<Object> sell(String code, int size) {
+		return publish(Type.SELL, code, size, 0);
+	}
+
+	/**
+	 * Approves buys of the batch in one round and publishes the
+	 * {@link Type#TRADES} from the approval executor once the approval
+	 * completes.
+	 */
+	public CompletableFuture<Object> trades(TradeBatch batch) {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		new TradeBatchExecution(batch, universe).approve(approvalService::approveBatch, APPROVE_THRESHOLD)
+				.thenAcceptAsync(execution -> ringBuffer.publishEvent((command, sequence) -> command.set(execution, result)),
+						approvalExecutor);
+		return result;
+	}
+
+	/**
+	 * Publishes the command to the ring buffer.
+	 * 
+	 * @return future that business logic thread completes
+	 */
+	private CompletableFuture<Object> publish(Type type, String code, int size, double price) {
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		ringBuffer.publishEvent((command, sequence) -> command.set(type, code, size, price, result));
+		return result;
+	}
+
+	private class BusinessLogicHandler implements EventHandler<StockCommand> {
+
+		@Override
+		public void onEvent(StockCommand command, long sequence, boolean endOfBatch) throws Exception {
+			try {
+				switch (command.type) {
+				case BALANCE:
+					command.result.complete(new BalanceInfoWrapper(new BalanceInfo(balance, getExposure())));
+					break;
+				case STOCK_INFO:
+					List<StockInfo> stockInfos = new ArrayList<>(stocks.length);
+					for (StockInfo stockInfo : stocks) {
+						if (null != stockInfo) {
+							stockInfos.add(new StockInfo(stockInfo));
+						}
+					}
+					command.result.complete(new StockInfoWarpper(stockInfos));
+					break;
+				case BUY:
+					buy(command);
+					break;
+				case APPROVED_BUY:
+					command.result.complete(executeBuy(command.code, command.size));
+					break;
+				case SELL:
+					command.result.complete(sell(command.code, command.size));
+					break;
+				case PRICE_UPDATE:
+					priceUpdate(command.code, command.price);
+					break;
+				case TRADES:
+					command.result.complete(trades(command.execution));
+					break;
+				}
+			} catch (Exception e) {
+				if (null != command.result) {
+					command.result.completeExceptionally(e);
+				}
+			} finally {
+				command.clear();
+			}
+		}
+
+		/**
+		 * Executes the buy or when approval is needed publishes the
+		 * {@link Type#APPROVED_BUY} from the approval executor once the approval
+		 * completes.
+		 */
+		private void buy(StockCommand command) {
+			String code = command.code;
+			int size = command.size;
+			CompletableFuture<Object> result = command.result;
+			if (null == getStock(code)) {
+				result.complete(new BuySellResponse(false, null, "Wrong stock code."));
+				return;
+			}
+			if (size <= 0) {
+				result.complete(new BuySellResponse(false, null, "Wrong buy size."));
+				return;
+			}
+
+			if (size > APPROVE_THRESHOLD) {
+				approvalService.approveAsync(code, size).whenCompleteAsync((approved, t) -> {
+					if (null != t) {
+						result.complete(new BuySellResponse(false, null, "Error during approval. " + t.getMessage()));
+					} else if (!approved) {
+						result.complete(new BuySellResponse(false, null, "Transaction not approved."));
+					} else {
+						ringBuffer.publishEvent((c, sequence) -> c.set(Type.APPROVED_BUY, code, size, 0, result));
+					}
+				}, approvalExecutor);
+			} else {
+				result.complete(executeBuy(code, size));
+			}
+		}
+
+		/**
+		 * When approved does the buy.
+		 */
+		private BuySellResponse executeBuy(String code, int size) {
+			StockInfo stockInfo = getStock(code);
+			double cost = stockInfo.price * size;
+			if (cost > balance) {
+				return new BuySellResponse(false, null, "Insufficient balance.");
+			}
+
+			balance -= cost;
+			stockInfo.holding += size;
+			responseCache.invalidate();
+
+			return new BuySellResponse(true, new StockInfo(stockInfo));
+		}
+
+		private BuySellResponse sell(String code, int size) {
+			StockInfo stockInfo = getStock(code);
+			if (null == stockInfo) {
+				return new BuySellResponse(false, null, "Wrong stock code.");
+			}
+			if (size <= 0) {
+				return new BuySellResponse(false, null, "Wrong sell size.");
+			}
+
+			if (size > stockInfo.holding) {
+				return new BuySellResponse(false, null, "Insufficient stock holding.");
+			}
+
+			double cost = stockInfo.price * size;
+			balance += cost;
+			stockInfo.holding -= size;
+			responseCache.invalidate();
+
+			return new BuySellResponse(true, new StockInfo(stockInfo));
+		}
+
+		/**
+		 * Checks and executes the approved batch of trades.
+		 */
+		private Object trades(TradeBatchExecution execution) {
+			for (int i = 0; i < execution.size(); i++) {
+				if (!execution.isRejected(i) && null == stocks[execution.getId(i)]) {
+					execution.reject(i, "Wrong stock code.");
+				}
+			}
+
+			if (execution.check(balance, id -> stocks[id].price, id -> stocks[id].holding)) {
+				for (int i = 0; i < execution.size(); i++) {
+					if (execution.isRejected(i)) {
+						continue;
+					}
+
+					Order order = execution.getOrder(i);
+					StockInfo stockInfo = stocks[execution.getId(i)];
+					if (order.isBuy()) {
+						balance -= execution.getCost(i);
+						stockInfo.holding += order.size;
+					} else {
+						balance += execution.getCost(i);
+						stockInfo.holding -= order.size;
+					}
+				}
+				for (int i = 0; i < execution.size(); i++) {
+					if (!execution.isRejected(i)) {
+						execution.executed(i, new StockInfo(stocks[execution.getId(i)]));
+					}
+				}
+				responseCache.invalidate();
+			}
+			return execution.toResponse();
+		}
+
+		/**
+		 * Updates price of a single stock.
+		 */
+		private void priceUpdate(String code, double price) {
+			int id = universe.id(code);
+			StockInfo stockPrice = stocks[id];
+			if (null != stockPrice) {
+				stockPrice.change = Util.getChangePercentage(stockPrice.startingPrice, price);
+				stockPrice.price = price;
+			} else {
+				stockPrice = new StockInfo(code, price);
+				stocks[id] = stockPrice;
+			}
+			responseCache.invalidate();
+			priceStream.publish(new PriceUpdate(code, price));
+		}
+
+		/**
+		 * @return Stock with the code or <code>null</code> if code is not known
+		 *         or stock is not yet priced.
+		 */
+		private StockInfo getStock(String code) {
+			int id = universe.id(code);
+			return id < 0 ? null : stocks[id];
+		}
+
+		/**
+		 * @return Current exposure in stocks.
+		 */
+		private double getExposure() {
+			double exposure = 0;
+			for (StockInfo stockInfo : stocks) {
+				if (null != stockInfo) {
+					exposure += stockInfo.price * stockInfo.holding;
+				}
+			}
+			return exposure;
+		}
+	}
+
+	private class PriceUpdater implements Runnable {
+
+		/**
+		 * Price for each stock id.
+		 */
+		private double[] prices;
+
+		public PriceUpdater() {
+			prices = new double[universe.size()];
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = 100.0d;
+			}
+
+			sendUpdates();
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = Util.getUpdatedPrice(prices[i]);
+			}
+
+			sendUpdates();
+		}
+
+		private void sendUpdates() {
+			for (int i = 0; i < prices.length; i++) {
+				publish(Type.PRICE_UPDATE, universe.code(i), 0, prices[i]);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package de.novatec.apm287.java.ringbuffer;
+
+import java.util.concurrent.CompletableFuture;
+
+import de.novatec.apm287.common.TradeBatchExecution;
+
+/**
+ * Command published to the ring buffer. Instances are pre-allocated by the
+ * ring buffer and reused, thus the fields are set on publish and cleared once
+ * the command is processed.
+ */
+public class StockCommand {
+
+	public enum Type {
+		BALANCE, STOCK_INFO, BUY, APPROVED_BUY, SELL, PRICE_UPDATE, TRADES
+	}
+
+	public Type type;
+	public String code;
+	public int size;
+	public double price;
+	public TradeBatchExecution execution;
+	public CompletableFuture<Object> result;
+
+	public void set(Type type, String code, int size, double price, CompletableFuture<Object> result) {
+		this.type = type;
+		this.code = code;
+		this.size = size;
+		this.price = price;
+		this.result = result;
+		this.execution = null;
+	}
+
+	public void set(TradeBatchExecution execution, CompletableFuture<Object> result) {
+		set(Type.TRADES, null, 0, 0, result);
+		this.execution = execution;
+	}
+
+	public void clear() {
+		set(null, null, 0, 0, null);
+	}
+}
@@ -0,0 +1,43 @@
+package de.novatec.apm287.java.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatchResponse;
+import de.novatec.apm287.common.service.IStockService;
+import de.novatec.apm287.java.lockfree.LockFreeStockManager;
+
+public class JavaLockFreeStockService implements IStockService {
+
+	@Autowired
+	private LockFreeStockManager manager;
+	
+	@Override
+	public Object balance() {
+		return manager.balance();
+	}
+
+	@Override
+	public Object stockInfo() {
+		return manager.stockInfo();
+	}
+
+	@Override
+	public CompletableFuture<BuySellResponse> buy(String code, int size) {
+		return manager.buy(code, size);
+	}
+
+	@Override
+	public Object sell(String code, int size) {
+		return manager.sell(code, size);
+	}
+
+	@Override
+	public CompletableFuture<TradeBatchResponse> trades(TradeBatch batch) {
+		return manager.trades(batch);
+	}
+
+}
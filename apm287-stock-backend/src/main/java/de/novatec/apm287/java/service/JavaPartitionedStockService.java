@@ -0,0 +1,45 @@
+package de.novatec.apm287.java.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatchResponse;
+import de.novatec.apm287.common.service.IStockService;
+import de.novatec.apm287.java.partitioned.PartitionedStockManager;
+
+public class JavaPartitionedStockService implements IStockService {
+
+	@Autowired
+	private PartitionedStockManager manager;
+
+	@Override
+	public CompletableFuture<BalanceInfoWrapper> balance() {
+		return manager.balance();
+	}
+
+	@Override
+	public CompletableFuture<StockInfoWarpper> stockInfo() {
+		return manager.stockInfo();
+	}
+
+	@Override
+	public CompletableFuture<BuySellResponse> buy(String code, int size) {
+		return manager.buy(code, size);
+	}
+
+	@Override
+	public CompletableFuture<BuySellResponse> sell(String code, int size) {
+		return manager.sell(code, size);
+	}
+
+	@Override
+	public CompletableFuture<TradeBatchResponse> trades(TradeBatch batch) {
+		return manager.trades(batch);
+	}
+
+}
@@ -0,0 +1,41 @@
+package de.novatec.apm287.java.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.service.IStockService;
+import de.novatec.apm287.java.ringbuffer.RingBufferStockManager;
+
+public class JavaRingBufferStockService implements IStockService {
+
+	@Autowired
+	private RingBufferStockManager manager;
+
+	@Override
+	public CompletableFuture<Object> balance() {
+		return manager.balance();
+	}
+
+	@Override
+	public CompletableFuture<Object> stockInfo() {
+		return manager.stockInfo();
+	}
+
+	@Override
+	public CompletableFuture<Object> buy(String code, int size) {
+		return manager.buy(code, size);
+	}
+
+	@Override
+	public CompletableFuture<Object> sell(String code, int size) {
+		return manager.sell(code, size);
+	}
+
+	@Override
+	public CompletableFuture<Object> trades(TradeBatch batch) {
+		return manager.trades(batch);
+	}
+
+}
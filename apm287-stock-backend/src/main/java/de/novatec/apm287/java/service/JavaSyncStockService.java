@@ -1,7 +1,12 @@
 package de.novatec.apm287.java.service;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.springframework.beans.factory.annotation.Autowired;
 
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatchResponse;
 import de.novatec.apm287.common.service.IStockService;
 import de.novatec.apm287.java.sync.StockManager;
 
@@ -21,13 +26,18 @@ public class JavaSyncStockService implements IStockService {
 	}
 
 	@Override
-	public Object buy(String code, int size) {
+	public CompletableFuture<BuySellResponse> buy(String code, int size) {
 		return manager.buy(code, size);
 	}
 
 	@Override
-	public Object sell(String code, int size) {
+	public CompletableFuture<BuySellResponse> sell(String code, int size) {
 		return manager.sell(code, size);
 	}
 
+	@Override
+	public CompletableFuture<TradeBatchResponse> trades(TradeBatch batch) {
+		return manager.trades(batch);
+	}
+
 }
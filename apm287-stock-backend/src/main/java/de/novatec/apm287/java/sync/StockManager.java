@@ -1,194 +1,596 @@
 package de.novatec.apm287.java.sync;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
-import org.apache.commons.lang3.RandomStringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
+import de.novatec.apm287.book.OrderSettlement;
 import de.novatec.apm287.common.BalanceInfo;
 import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
 import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.ExposureTracker;
 import de.novatec.apm287.common.PriceUpdate;
 import de.novatec.apm287.common.StockInfo;
 import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.StockSnapshot;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatch.Order;
+import de.novatec.apm287.common.TradeBatchExecution;
+import de.novatec.apm287.common.TradeBatchResponse;
 import de.novatec.apm287.common.Util;
-import de.novatec.apm287.common.service.ApprovalService;
+import de.novatec.apm287.common.journal.TradeEntry;
+import de.novatec.apm287.common.journal.TradeJournal;
+import de.novatec.apm287.common.journal.TradeJournalFactory;
+import de.novatec.apm287.common.metrics.StockMetrics;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import io.micrometer.core.instrument.Timer;
 
+@Lazy
 @Component
-public class StockManager {
-	
+public class StockManager implements OrderSettlement {
+
 	/**
 	 * When buy comes with more than this stock size we must approve this.
 	 */
 	private static final int APPROVE_THRESHOLD = 5;
 
-	
+	/**
+	 * Reason for the trades reverted because the journal write failed.
+	 */
+	private static final String JOURNAL_FAILED = "Journal write failed.";
+
+
 	/**
 	 * Approval service.
 	 */
 	@Autowired
-	private ApprovalService approvalService;
-	
+	private IApprovalService approvalService;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	@Autowired
+	private PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	@Autowired
+	private StockResponseCache responseCache;
+
+	/**
+	 * Factory for the trade journal.
+	 */
+	@Autowired
+	private TradeJournalFactory journalFactory;
+
+	/**
+	 * Stocks that can be traded.
+	 */
+	@Autowired
+	private StockUniverse universe;
+
+	@Autowired
+	private StockMetrics metrics;
+
+	/**
+	 * Time spent waiting for the monitor, recorded once the monitor is released
+	 * so the recording does not lengthen the critical section.
+	 */
+	private Timer lockWait;
+
+	/**
+	 * Journal the trades are written to.
+	 */
+	private TradeJournal journal;
+
 	/**
 	 * Default balance to start with is 10.000.
 	 */
 	private double balance = 10_000;
 
 	/**
-	 * Map where we hold current data.
+	 * Part of the balance reserved by the buys waiting for the approval and
+	 * by the buy orders in the books.
 	 */
-	private Map<String, StockInfo> codeToStock = new HashMap<>();
-	
+	private double reserved;
+
+	/**
+	 * Starting price for each stock id.
+	 */
+	private double[] startingPrices;
+
+	/**
+	 * Current price for each stock id.
+	 */
+	private double[] prices;
+
+	/**
+	 * Holding for each stock id.
+	 */
+	private int[] holdings;
+
+	/**
+	 * Part of the holding reserved by the sell orders in the books for each
+	 * stock id.
+	 */
+	private int[] reservedHoldings;
+
+	/**
+	 * Snapshot of all stocks, published under the lock with each price tick
+	 * and each trade.
+	 */
+	private final AtomicReference<StockSnapshot> snapshot = new AtomicReference<>();
+
+	/**
+	 * Exposure updated on each price and holding change.
+	 */
+	private ExposureTracker exposure = new ExposureTracker();
+
+	/**
+	 * Interval in seconds for reconciling exposure with the full scan,
+	 * <code>0</code> to disable.
+	 */
+	@Value("${apm287.exposure.reconcileInterval}")
+	private long reconcileInterval;
+
 	/**
 	 * Executor for updater.
 	 */
 	private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
-	
+
 	/**
-	 * Just schedule on the start.
+	 * Replays the journal and schedules price updates on the start.
 	 */
-	public StockManager() {
+	@PostConstruct
+	public void start() {
+		lockWait = metrics.lockWait("java-sync");
+		startingPrices = new double[universe.size()];
+		prices = new double[universe.size()];
+		holdings = new int[universe.size()];
+		reservedHoldings = new int[universe.size()];
+
+		journal = journalFactory.open("java-sync");
+		journal.replay(e -> {
+			int id = universe.id(e.code);
+			if (id < 0) {
+				throw new IllegalStateException("Trade journal has a trade of the unknown stock code " + e.code
+						+ ", start with the stock universe the journal was written with.");
+			}
+			balance += e.balanceUpdate;
+			holdings[id] += e.holdingUpdate;
+		});
+		StockInfo[] stockInfos = new StockInfo[prices.length];
+		for (int id = 0; id < prices.length; id++) {
+			stockInfos[id] = getStockInfo(id);
+		}
+		snapshot.set(new StockSnapshot(stockInfos));
+
 		PriceUpdater updater = new PriceUpdater();
 		executorService.scheduleAtFixedRate(updater, 1, 1, TimeUnit.SECONDS);
+		if (reconcileInterval > 0) {
+			executorService.scheduleAtFixedRate(this::reconcileExposure, reconcileInterval, reconcileInterval,
+					TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executorService.shutdown();
+		journal.close();
 	}
 
 	/**
 	 * @return current balance info
 	 */
-	public synchronized BalanceInfoWrapper balance() {
-		BalanceInfo balanceInfo = new BalanceInfo(balance, getExposure());
-		return new BalanceInfoWrapper(balanceInfo); 
+	public BalanceInfoWrapper balance() {
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (this) {
+				acquired = System.nanoTime();
+				BalanceInfo balanceInfo = new BalanceInfo(balance, exposure.get());
+				return new BalanceInfoWrapper(balanceInfo);
+			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
 	}
 
 	/**
-	 * @return stock info wrapper
+	 * @return stock info wrapper of the current snapshot, does not lock
 	 */
-	public synchronized StockInfoWarpper stockInfo() {
-		return new StockInfoWarpper(codeToStock.values());
+	public StockInfoWarpper stockInfo() {
+		return new StockInfoWarpper(snapshot.get().getStocks());
 	}
 
-	public synchronized BuySellResponse buy(String code, int size) {
-		StockInfo stockInfo = codeToStock.get(code);
-		if (null == stockInfo) {
-			return new BuySellResponse(false, null, "Wrong stock code.");
+	/**
+	 * Buys stocks. Buys that need approval are done in two phases: the cost is
+	 * reserved against the balance under the lock, the approval is done
+	 * asynchronously without holding the lock and the reservation is then
+	 * committed or rolled back. Response is sent once the trade is journaled.
+	 */
+	public CompletableFuture<BuySellResponse> buy(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong stock code."));
 		}
 		if (size <= 0) {
-			return new BuySellResponse(false, null, "Wrong buy size.");
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong buy size."));
 		}
 
-		if (size > APPROVE_THRESHOLD) {
-			boolean approved = approvalService.approve(code, size);
-			if (!approved) {
-				return new BuySellResponse(false, null, "Transaction not approved.");
-			} else {
-				return executeBuy(stockInfo, size);
+		double cost;
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (this) {
+				acquired = System.nanoTime();
+				if (size <= APPROVE_THRESHOLD) {
+					return executeBuy(id, size);
+				}
+
+				// reserve with the current price
+				cost = prices[id] * size;
+				if (cost > balance - reserved) {
+					return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Insufficient balance."));
+				}
+				reserved += cost;
 			}
-		} else {
-			return executeBuy(stockInfo, size);
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
 		}
+
+		return approvalService.approveAsync(code, size).toCompletableFuture().handle((approved, t) -> {
+			boolean commit = null == t && approved;
+			BuySellResponse response = null;
+			CompletableFuture<Boolean> journaled = null;
+			long commitWaitStart = System.nanoTime();
+			long commitAcquired = commitWaitStart;
+			try {
+				synchronized (this) {
+					commitAcquired = System.nanoTime();
+					reserved -= cost;
+					if (commit) {
+						balance -= cost;
+						holdings[id] += size;
+						exposure.add(prices[id] * size);
+						response = new BuySellResponse(true, publish(id));
+						journaled = append(id, new TradeEntry(-cost, code, size));
+					}
+				}
+			} finally {
+				lockWait.record(commitAcquired - commitWaitStart, TimeUnit.NANOSECONDS);
+			}
+
+			if (null != t) {
+				return CompletableFuture.completedFuture(
+						new BuySellResponse(false, null, "Error during approval. " + t.getMessage()));
+			} else if (!commit) {
+				return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Transaction not approved."));
+			} else {
+				BuySellResponse committed = response;
+				return journaled.thenApply(durable -> durable ? committed : new BuySellResponse(false, null, JOURNAL_FAILED));
+			}
+		}).thenCompose(r -> r);
 	}
 
-	public synchronized BuySellResponse sell(String code, int size) {
-		StockInfo stockInfo = codeToStock.get(code);
-		if (null == stockInfo) {
-			return new BuySellResponse(false, null, "Wrong stock code.");
+	public CompletableFuture<BuySellResponse> sell(String code, int size) {
+		int id = universe.id(code);
+		if (id < 0) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong stock code."));
 		}
 		if (size <= 0) {
-			return new BuySellResponse(false, null, "Wrong sell size.");
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Wrong sell size."));
+		}
+
+		BuySellResponse response;
+		CompletableFuture<Boolean> journaled;
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (this) {
+				acquired = System.nanoTime();
+				if (size > holdings[id] - reservedHoldings[id]) {
+					return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Insufficient stock holding."));
+				}
+
+				double cost = prices[id] * size;
+				balance += cost;
+				holdings[id] -= size;
+				exposure.add(-cost);
+
+				response = new BuySellResponse(true, publish(id));
+				journaled = append(id, new TradeEntry(cost, code, -size));
+			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
+		return journaled.thenApply(durable -> durable ? response : new BuySellResponse(false, null, JOURNAL_FAILED));
+	}
+
+	/**
+	 * Executes the batch of trades. Buys that need approval are approved in
+	 * one round before, then all orders are checked and executed holding the
+	 * lock once. Response is sent once all trades are journaled.
+	 */
+	public CompletableFuture<TradeBatchResponse> trades(TradeBatch batch) {
+		TradeBatchExecution execution = new TradeBatchExecution(batch, universe);
+		return execution.approve(approvalService::approveBatch, APPROVE_THRESHOLD).toCompletableFuture()
+				.thenCompose(this::executeTrades);
+	}
+
+	/**
+	 * Executes the approved batch of trades.
+	 */
+	private CompletableFuture<TradeBatchResponse> executeTrades(TradeBatchExecution execution) {
+		List<CompletableFuture<Boolean>> journaled = new ArrayList<>();
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (this) {
+				acquired = System.nanoTime();
+				if (execution.check(balance - reserved, id -> prices[id], id -> holdings[id] - reservedHoldings[id])) {
+					for (int i = 0; i < execution.size(); i++) {
+						if (execution.isRejected(i)) {
+							continue;
+						}
+
+						Order order = execution.getOrder(i);
+						int size = order.isBuy() ? order.size : -order.size;
+						double balanceUpdate = order.isBuy() ? -execution.getCost(i) : execution.getCost(i);
+						balance += balanceUpdate;
+						holdings[execution.getId(i)] += size;
+						exposure.add(-balanceUpdate);
+						int index = i;
+						journaled.add(append(execution.getId(i), new TradeEntry(balanceUpdate, order.code, size))
+								.thenApply(durable -> {
+									if (!durable) {
+										execution.failed(index, JOURNAL_FAILED);
+									}
+									return durable;
+								}));
+					}
+					for (int i = 0; i < execution.size(); i++) {
+						if (!execution.isRejected(i)) {
+							execution.executed(i, publish(execution.getId(i)));
+						}
+					}
+				}
+			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
 		}
+		return CompletableFuture.allOf(journaled.toArray(new CompletableFuture<?>[0])).thenApply(v -> execution.toResponse());
+	}
 
-		if (size > stockInfo.holding) {
-			return new BuySellResponse(false, null, "Insufficient stock holding.");
+	@Override
+	public String reserve(int id, boolean buy, double price, int size) {
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (this) {
+				acquired = System.nanoTime();
+				if (buy) {
+					double cost = price * size;
+					if (cost > balance - reserved) {
+						return "Insufficient balance.";
+					}
+					reserved += cost;
+				} else {
+					if (size > holdings[id] - reservedHoldings[id]) {
+						return "Insufficient stock holding.";
+					}
+					reservedHoldings[id] += size;
+				}
+				return null;
+			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
 		}
+	}
 
-		double cost = stockInfo.price * size;
-		balance += cost;
-		stockInfo.holding -= size;
+	@Override
+	public synchronized void release(int id, boolean buy, double price, int size) {
+		if (buy) {
+			reserved -= price * size;
+		} else {
+			reservedHoldings[id] -= size;
+		}
+	}
+
+	/**
+	 * Settles the fill like a trade, it is journaled and published as well.
+	 */
+	@Override
+	public void settle(int id, boolean buy, double limitPrice, double price, int size) {
+		long waitStart = System.nanoTime();
+		long acquired = waitStart;
+		try {
+			synchronized (this) {
+				acquired = System.nanoTime();
+				release(id, buy, limitPrice, size);
+				double balanceUpdate = buy ? -price * size : price * size;
+				int holdingUpdate = buy ? size : -size;
+				balance += balanceUpdate;
+				holdings[id] += holdingUpdate;
+				exposure.add(prices[id] * holdingUpdate);
+				publish(id);
+				append(id, new TradeEntry(balanceUpdate, universe.code(id), holdingUpdate));
+			}
+		} finally {
+			lockWait.record(acquired - waitStart, TimeUnit.NANOSECONDS);
+		}
+	}
 
-		return new BuySellResponse(true, stockInfo);
+	/**
+	 * Updates prices of all stocks and publishes them with one snapshot.
+	 *
+	 * @param newPrices
+	 *            Price for each stock id.
+	 */
+	protected synchronized void priceUpdates(double[] newPrices) {
+		int[] ids = new int[newPrices.length];
+		StockInfo[] stockInfos = new StockInfo[newPrices.length];
+		long[] stamps = new long[newPrices.length];
+		long stamp = snapshot.get().getVersion() + 1;
+		for (int id = 0; id < newPrices.length; id++) {
+			priceUpdate(id, newPrices[id]);
+			ids[id] = id;
+			stockInfos[id] = getStockInfo(id);
+			stamps[id] = stamp;
+		}
+		snapshot.set(snapshot.get().with(ids, stockInfos, stamps));
+		responseCache.invalidate();
 	}
-	
+
 	/**
 	 * Updates price of a single stock.
 	 */
-	protected synchronized void priceUpdate(PriceUpdate update) {
-		String code = update.code;
-		StockInfo stockPrice = codeToStock.get(code);
-		if (null != stockPrice) {
-			stockPrice.change = Util.getChangePercentage(stockPrice.startingPrice, update.price);
-			stockPrice.price = update.price;
-		} else {
-			stockPrice = new StockInfo(code, update.price);
-			codeToStock.put(code, stockPrice);
+	private void priceUpdate(int id, double price) {
+		if (0 == startingPrices[id]) {
+			startingPrices[id] = price;
 		}
+		exposure.add((price - prices[id]) * holdings[id]);
+		prices[id] = price;
 	}
-	
+
 	/**
 	 * When approved does the buy.
 	 */
-	private BuySellResponse executeBuy(StockInfo stockInfo, int size) {
-		double cost = stockInfo.price * size;
-		if (cost > balance) {
-			return new BuySellResponse(false, null, "Insufficient balance.");
+	private CompletableFuture<BuySellResponse> executeBuy(int id, int size) {
+		double cost = prices[id] * size;
+		if (cost > balance - reserved) {
+			return CompletableFuture.completedFuture(new BuySellResponse(false, null, "Insufficient balance."));
 		}
 
 		balance -= cost;
-		stockInfo.holding += size;
+		holdings[id] += size;
+		exposure.add(cost);
 
-		return new BuySellResponse(true, stockInfo);
+		BuySellResponse response = new BuySellResponse(true, publish(id));
+		return append(id, new TradeEntry(-cost, universe.code(id), size))
+				.thenApply(durable -> durable ? response : new BuySellResponse(false, null, JOURNAL_FAILED));
 	}
-	
+
+	/**
+	 * Journals the trade already applied to the balance and holdings. When
+	 * the write fails the journal drops the trade, so it is reverted here as
+	 * well to keep the state the journal restores on the start.
+	 *
+	 * @return Future completed with <code>true</code> when the trade is
+	 *         durable, <code>false</code> when it was reverted.
+	 */
+	private CompletableFuture<Boolean> append(int id, TradeEntry entry) {
+		return journal.append(entry).handle((v, t) -> {
+			if (null == t) {
+				return true;
+			}
+			System.out.println("Journal write failed, reverting the trade of " + entry.code + ": " + t.getMessage());
+			revert(id, entry);
+			return false;
+		});
+	}
+
+	/**
+	 * Reverts the trade and publishes the stock.
+	 */
+	private synchronized void revert(int id, TradeEntry entry) {
+		balance -= entry.balanceUpdate;
+		holdings[id] -= entry.holdingUpdate;
+		exposure.add(-prices[id] * entry.holdingUpdate);
+		publish(id);
+	}
+
+	/**
+	 * @return Stock info with the current data of the stock.
+	 */
+	private StockInfo getStockInfo(int id) {
+		StockInfo stockInfo = new StockInfo(universe.code(id), startingPrices[id]);
+		stockInfo.price = prices[id];
+		stockInfo.change = Util.getChangePercentage(stockInfo.startingPrice, stockInfo.price);
+		stockInfo.holding = holdings[id];
+		return stockInfo;
+	}
+
+	/**
+	 * Publishes the snapshot with the current data of the stock, must be
+	 * called holding the lock.
+	 *
+	 * @return Published stock info.
+	 */
+	private StockInfo publish(int id) {
+		StockSnapshot current = snapshot.get();
+		StockInfo stockInfo = getStockInfo(id);
+		snapshot.set(current.with(id, stockInfo, current.getVersion() + 1));
+		responseCache.invalidate();
+		return stockInfo;
+	}
+
 	/**
-	 * @return Current exposure in stocks.
+	 * Reconciles the exposure with the full scan.
+	 */
+	private synchronized void reconcileExposure() {
+		exposure.reconcile(this::getExposure);
+	}
+
+	/**
+	 * @return Current exposure in stocks computed from all stocks.
 	 */
 	private double getExposure() {
-		return codeToStock.values().stream().mapToDouble(s -> s.price * s.holding).sum();
+		double exposure = 0;
+		for (int id = 0; id < prices.length; id++) {
+			exposure += prices[id] * holdings[id];
+		}
+		return exposure;
 	}
-	
+
 	private class PriceUpdater implements Runnable {
-		
-		/**
-		 * Codes to generate prices for.
-		 */
-		private String[] codes;
 
 		/**
-		 * Price for each code.
+		 * Price for each stock id.
 		 */
 		private double[] prices;
-		
+
 		public PriceUpdater() {
-			codes = new String[5];
-			prices = new double[codes.length];
-			for (int i = 0; i < codes.length; i++) {
-				codes[i] = RandomStringUtils.randomAlphabetic(3).toUpperCase();
+			prices = new double[universe.size()];
+			for (int i = 0; i < prices.length; i++) {
 				prices[i] = 100.0d;
 			}
-			
+
 			sendUpdates();
 		}
-		
+
 		@Override
 		public void run() {
-			for (int i = 0; i < codes.length; i++) {
+			for (int i = 0; i < prices.length; i++) {
 				prices[i] = Util.getUpdatedPrice(prices[i]);
 			}
-			
+
 			sendUpdates();
 		}
-		
+
 		private void sendUpdates() {
+			priceUpdates(prices);
 			for (int i = 0; i < prices.length; i++) {
-				PriceUpdate priceUpdate = new PriceUpdate(codes[i], prices[i]);
-				priceUpdate(priceUpdate);
+				priceStream.publish(new PriceUpdate(universe.code(i), prices[i]));
 			}
 		}
-		
+
 	}
-	
+
 }
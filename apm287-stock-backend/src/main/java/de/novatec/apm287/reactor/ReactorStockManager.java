@@ -0,0 +1,328 @@
+package de.novatec.apm287.reactor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import de.novatec.apm287.common.BalanceInfo;
+import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.PriceUpdate;
+import de.novatec.apm287.common.StockInfo;
+import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatch.Order;
+import de.novatec.apm287.common.TradeBatchExecution;
+import de.novatec.apm287.common.TradeBatchResponse;
+import de.novatec.apm287.common.Util;
+import de.novatec.apm287.common.service.IApprovalService;
+import de.novatec.apm287.common.service.StockResponseCache;
+import de.novatec.apm287.common.stream.PriceStream;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Stock manager returning {@link Mono} for every operation. All stock data is
+ * owned by a single scheduler thread, approvals are non-blocking and limited
+ * with a timeout.
+ */
+@Lazy
+@Component
+public class ReactorStockManager {
+
+	/**
+	 * When buy comes with more than this stock size we must approve this.
+	 */
+	private static final int APPROVE_THRESHOLD = 5;
+
+	/**
+	 * Approval service.
+	 */
+	@Autowired
+	private IApprovalService approvalService;
+
+	/**
+	 * Stream to publish price updates to.
+	 */
+	@Autowired
+	private PriceStream priceStream;
+
+	/**
+	 * Cache of the rendered responses, invalidated with each change.
+	 */
+	@Autowired
+	private StockResponseCache responseCache;
+
+	/**
+	 * Stocks that can be traded.
+	 */
+	@Autowired
+	private StockUniverse universe;
+
+	/**
+	 * Approval timeout in ms.
+	 */
+	@Value("${apm287.reactor.approvalTimeout}")
+	private long approvalTimeout;
+
+	/**
+	 * Default balance to start with is 10.000. Only accessed on the scheduler.
+	 */
+	private double balance = 10_000;
+
+	/**
+	 * Current data for each stock id, <code>null</code> until the stock is
+	 * priced. Only accessed on the scheduler.
+	 */
+	private StockInfo[] stocks;
+
+	/**
+	 * Single thread scheduler owning the data.
+	 */
+	private Scheduler scheduler = Schedulers.newSingle("reactor-stock-manager");
+
+	/**
+	 * Just schedule on the start.
+	 */
+	@PostConstruct
+	public void start() {
+		stocks = new StockInfo[universe.size()];
+		PriceUpdater updater = new PriceUpdater();
+		scheduler.schedule(updater::sendUpdates);
+		scheduler.schedulePeriodically(updater, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.dispose();
+	}
+
+	/**
+	 * @return current balance info
+	 */
+	public Mono<BalanceInfoWrapper> balance() {
+		return Mono.fromCallable(() -> new BalanceInfoWrapper(new BalanceInfo(balance, getExposure())))
+				.subscribeOn(scheduler);
+	}
+
+	/**
+	 * @return stock info wrapper
+	 */
+	public Mono<StockInfoWarpper> stockInfo() {
+		return Mono.fromCallable(() -> {
+			List<StockInfo> stockInfos = new ArrayList<>(stocks.length);
+			for (StockInfo stockInfo : stocks) {
+				if (null != stockInfo) {
+					stockInfos.add(new StockInfo(stockInfo));
+				}
+			}
+			return new StockInfoWarpper(stockInfos);
+		}).subscribeOn(scheduler);
+	}
+
+	public Mono<BuySellResponse> buy(String code, int size) {
+		return Mono.fromCallable(() -> null != getStock(code)).subscribeOn(scheduler).flatMap(exists -> {
+			if (!exists) {
+				return Mono.just(new BuySellResponse(false, null, "Wrong stock code."));
+			}
+			if (size <= 0) {
+				return Mono.just(new BuySellResponse(false, null, "Wrong buy size."));
+			}
+
+			if (size > APPROVE_THRESHOLD) {
+				return approve(code, size).publishOn(scheduler).map(approved -> {
+					if (!approved) {
+						return new BuySellResponse(false, null, "Transaction not approved.");
+					} else {
+						return executeBuy(code, size);
+					}
+				}).onErrorResume(TimeoutException.class,
+						t -> Mono.just(new BuySellResponse(false, null, "Approval resulted in timeout.")))
+						.onErrorResume(t -> Mono.just(new BuySellResponse(false, null, "Error during approval. " + t.getMessage())));
+			} else {
+				return Mono.just(executeBuy(code, size));
+			}
+		});
+	}
+
+	public Mono<BuySellResponse> sell(String code, int size) {
+		return Mono.fromCallable(() -> {
+			StockInfo stockInfo = getStock(code);
+			if (null == stockInfo) {
+				return new BuySellResponse(false, null, "Wrong stock code.");
+			}
+			if (size <= 0) {
+				return new BuySellResponse(false, null, "Wrong sell size.");
+			}
+
+			if (size > stockInfo.holding) {
+				return new BuySellResponse(false, null, "Insufficient stock holding.");
+			}
+
+			double cost = stockInfo.price * size;
+			balance += cost;
+			stockInfo.holding -= size;
+			responseCache.invalidate();
+
+			return new BuySellResponse(true, new StockInfo(stockInfo));
+		}).subscribeOn(scheduler);
+	}
+
+	/**
+	 * Approves buys of the batch in one round, then checks and executes all
+	 * orders on the scheduler.
+	 */
+	public Mono<TradeBatchResponse> trades(TradeBatch batch) {
+		TradeBatchExecution execution = new TradeBatchExecution(batch, universe);
+		return Mono.fromCompletionStage(execution.approve(requests -> Mono
+				.defer(() -> Mono.fromCompletionStage(approvalService.approveBatch(requests)))
+				.timeout(Duration.ofMillis(approvalTimeout)).toFuture(), APPROVE_THRESHOLD))
+				.publishOn(scheduler)
+				.map(this::executeTrades);
+	}
+
+	/**
+	 * @return Non-blocking approval limited with the approval timeout.
+	 */
+	private Mono<Boolean> approve(String code, int size) {
+		return Mono.defer(() -> Mono.fromCompletionStage(approvalService.approveAsync(code, size)))
+				.timeout(Duration.ofMillis(approvalTimeout));
+	}
+
+	/**
+	 * When approved does the buy. Must be called on the scheduler.
+	 */
+	private BuySellResponse executeBuy(String code, int size) {
+		StockInfo stockInfo = getStock(code);
+		double cost = stockInfo.price * size;
+		if (cost > balance) {
+			return new BuySellResponse(false, null, "Insufficient balance.");
+		}
+
+		balance -= cost;
+		stockInfo.holding += size;
+		responseCache.invalidate();
+
+		return new BuySellResponse(true, new StockInfo(stockInfo));
+	}
+
+	/**
+	 * Checks and executes the approved batch of trades. Must be called on the
+	 * scheduler.
+	 */
+	private TradeBatchResponse executeTrades(TradeBatchExecution execution) {
+		for (int i = 0; i < execution.size(); i++) {
+			if (!execution.isRejected(i) && null == stocks[execution.getId(i)]) {
+				execution.reject(i, "Wrong stock code.");
+			}
+		}
+
+		if (execution.check(balance, id -> stocks[id].price, id -> stocks[id].holding)) {
+			for (int i = 0; i < execution.size(); i++) {
+				if (execution.isRejected(i)) {
+					continue;
+				}
+
+				Order order = execution.getOrder(i);
+				StockInfo stockInfo = stocks[execution.getId(i)];
+				if (order.isBuy()) {
+					balance -= execution.getCost(i);
+					stockInfo.holding += order.size;
+				} else {
+					balance += execution.getCost(i);
+					stockInfo.holding -= order.size;
+				}
+			}
+			for (int i = 0; i < execution.size(); i++) {
+				if (!execution.isRejected(i)) {
+					execution.executed(i, new StockInfo(stocks[execution.getId(i)]));
+				}
+			}
+			responseCache.invalidate();
+		}
+		return execution.toResponse();
+	}
+
+	/**
+	 * Updates price of a single stock. Must be called on the scheduler.
+	 */
+	private void priceUpdate(int id, double price) {
+		String code = universe.code(id);
+		StockInfo stockPrice = stocks[id];
+		if (null != stockPrice) {
+			stockPrice.change = Util.getChangePercentage(stockPrice.startingPrice, price);
+			stockPrice.price = price;
+		} else {
+			stockPrice = new StockInfo(code, price);
+			stocks[id] = stockPrice;
+		}
+		responseCache.invalidate();
+		priceStream.publish(new PriceUpdate(code, price));
+	}
+
+	/**
+	 * @return Stock with the code or <code>null</code> if code is not known or
+	 *         stock is not yet priced. Must be called on the scheduler.
+	 */
+	private StockInfo getStock(String code) {
+		int id = universe.id(code);
+		return id < 0 ? null : stocks[id];
+	}
+
+	/**
+	 * @return Current exposure in stocks.
+	 */
+	private double getExposure() {
+		double exposure = 0;
+		for (StockInfo stockInfo : stocks) {
+			if (null != stockInfo) {
+				exposure += stockInfo.price * stockInfo.holding;
+			}
+		}
+		return exposure;
+	}
+
+	private class PriceUpdater implements Runnable {
+
+		/**
+		 * Price for each stock id.
+		 */
+		private double[] prices;
+
+		public PriceUpdater() {
+			prices = new double[universe.size()];
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = 100.0d;
+			}
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = Util.getUpdatedPrice(prices[i]);
+			}
+
+			sendUpdates();
+		}
+
+		private void sendUpdates() {
+			for (int i = 0; i < prices.length; i++) {
+				priceUpdate(i, prices[i]);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+package de.novatec.apm287.reactor.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import de.novatec.apm287.common.BalanceInfo.BalanceInfoWrapper;
+import de.novatec.apm287.common.BuySellResponse;
+import de.novatec.apm287.common.StockInfo.StockInfoWarpper;
+import de.novatec.apm287.common.TradeBatch;
+import de.novatec.apm287.common.TradeBatchResponse;
+import de.novatec.apm287.common.service.IStockService;
+import de.novatec.apm287.reactor.ReactorStockManager;
+import reactor.core.publisher.Mono;
+
+/**
+ * Service returning {@link Mono} end to end. To be used with WebFlux, thus
+ * start with <code>spring.main.web-application-type=reactive</code>.
+ */
+public class ReactorStockService implements IStockService {
+
+	@Autowired
+	private ReactorStockManager manager;
+
+	@Override
+	public Mono<BalanceInfoWrapper> balance() {
+		return manager.balance();
+	}
+
+	@Override
+	public Mono<StockInfoWarpper> stockInfo() {
+		return manager.stockInfo();
+	}
+
+	@Override
+	public Mono<BuySellResponse> buy(String code, int size) {
+		return manager.buy(code, size);
+	}
+
+	@Override
+	public Mono<BuySellResponse> sell(String code, int size) {
+		return manager.sell(code, size);
+	}
+
+	@Override
+	public Mono<TradeBatchResponse> trades(TradeBatch batch) {
+		return manager.trades(batch);
+	}
+
+}
@@ -0,0 +1,86 @@
+package de.novatec.apm287.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import de.novatec.apm287.Apm287Application;
+import de.novatec.apm287.common.StockUniverse;
+import de.novatec.apm287.common.service.IStockService;
+import reactor.core.publisher.Mono;
+
+/**
+ * Application context without the web stack running the selected
+ * {@link IStockService} engine, so the engine can be called directly.
+ */
+public class Engine implements AutoCloseable {
+
+	private final ConfigurableApplicationContext context;
+
+	/**
+	 * Service of the engine.
+	 */
+	public final IStockService stockService;
+
+	/**
+	 * Codes of all stocks.
+	 */
+	public final String[] codes;
+
+	/**
+	 * Starts the engine and waits until the stocks are priced.
+	 *
+	 * @param service
+	 *            Engine to use, same options as <code>apm287.service</code>.
+	 * @param symbols
+	 *            Amount of stocks in the universe.
+	 * @param approvalSleep
+	 *            Approval latency in ms, <code>0</code> approves immediately.
+	 * @param properties
+	 *            Other application properties as <code>name=value</code>.
+	 */
+	public Engine(String service, int symbols, int approvalSleep, String... properties) throws InterruptedException {
+		List<String> args = new ArrayList<>();
+		args.add("--spring.main.web-application-type=none");
+		args.add("--apm287.service=" + service);
+		args.add("--apm287.universe.size=" + symbols);
+		args.add("--apm287.appoval.minSleep=" + approvalSleep);
+		args.add("--apm287.appoval.maxSleep=" + approvalSleep);
+		for (String property : properties) {
+			args.add("--" + property);
+		}
+
+		context = SpringApplication.run(Apm287Application.class, args.toArray(new String[0]));
+		stockService = context.getBean(IStockService.class);
+		codes = context.getBean(StockUniverse.class).codes();
+
+		// some engines price the stocks asynchronously, all are priced after the first tick
+		Thread.sleep(2000);
+	}
+
+	@Override
+	public void close() {
+		context.close();
+	}
+
+	/**
+	 * Waits for the result of the service call.
+	 *
+	 * @param result
+	 *            Value, {@link CompletionStage} or {@link Mono} of the value.
+	 * @return Value.
+	 */
+	public static Object await(Object result) {
+		if (result instanceof CompletionStage) {
+			return ((CompletionStage<?>) result).toCompletableFuture().join();
+		} else if (result instanceof Mono) {
+			return ((Mono<?>) result).block();
+		} else {
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package de.novatec.apm287.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.novatec.apm287.common.service.IStockService;
+
+/**
+ * {@link Engine} started once per trial with the selected
+ * {@link IStockService}. Benchmarks call the service directly, so the results
+ * do not include Tomcat and Jackson.
+ */
+@State(Scope.Benchmark)
+public class EngineState {
+
+	/**
+	 * Engine to use, same options as <code>apm287.service</code>.
+	 */
+	@Param({ "java-sync", "java-concurrent", "akka" })
+	public String service;
+
+	/**
+	 * Amount of stocks in the universe.
+	 */
+	@Param({ "5" })
+	public int symbols;
+
+	/**
+	 * Approval latency in ms, <code>0</code> approves immediately.
+	 */
+	@Param({ "0" })
+	public int approvalSleep;
+
+	private Engine engine;
+
+	/**
+	 * Service of the engine.
+	 */
+	public IStockService stockService;
+
+	/**
+	 * Codes of all stocks.
+	 */
+	public String[] codes;
+
+	@Setup(Level.Trial)
+	public void start() throws Exception {
+		engine = new Engine(service, symbols, approvalSleep);
+		stockService = engine.stockService;
+		codes = engine.codes;
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		engine.close();
+	}
+
+	/**
+	 * Waits for the result of the service call.
+	 */
+	public static Object await(Object result) {
+		return Engine.await(result);
+	}
+
+}
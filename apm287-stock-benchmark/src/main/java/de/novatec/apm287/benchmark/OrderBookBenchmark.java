@@ -0,0 +1,103 @@
+package de.novatec.apm287.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.novatec.apm287.book.OrderBook;
+import de.novatec.apm287.book.OrderBook.FillListener;
+
+/**
+ * Matching cost of a single {@link OrderBook}, without the monitor of the
+ * book manager. The book is filled with resting orders on both sides around
+ * the mid price before the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderBookBenchmark {
+
+	private static final long MID = 10_000;
+
+	/**
+	 * Price levels filled on each side.
+	 */
+	@Param({ "100" })
+	public int depth;
+
+	/**
+	 * Resting orders per level.
+	 */
+	@Param({ "10" })
+	public int ordersPerLevel;
+
+	private final SplittableRandom random = new SplittableRandom(42);
+
+	private OrderBook book;
+
+	private long filled;
+
+	private final FillListener listener = (makerOrderId, price, size) -> filled += size;
+
+	@Setup
+	public void setup() {
+		book = new OrderBook(0, 1024);
+		for (int level = 1; level <= depth; level++) {
+			for (int i = 0; i < ordersPerLevel; i++) {
+				book.submit(true, MID - level, 10, listener);
+				book.submit(false, MID + level, 10, listener);
+			}
+		}
+	}
+
+	/**
+	 * Adds an order away from the top of the book and cancels it.
+	 */
+	@Benchmark
+	public int restAndCancel() {
+		boolean buy = random.nextBoolean();
+		long price = buy ? MID - 1 - random.nextInt(depth) : MID + 1 + random.nextInt(depth);
+		return book.cancel(book.submit(buy, price, 10, listener));
+	}
+
+	/**
+	 * Adds an order at the mid price and fully matches it with the opposite
+	 * order, book is the same after the call.
+	 */
+	@Benchmark
+	public long cross() {
+		boolean buy = random.nextBoolean();
+		book.submit(buy, MID, 10, listener);
+		book.submit(!buy, MID, 10, listener);
+		return filled;
+	}
+
+	/**
+	 * Takes the whole best level of one side and puts it back.
+	 */
+	@Benchmark
+	public long sweep() {
+		boolean buy = random.nextBoolean();
+		long price = buy ? MID + 1 : MID - 1;
+		book.submit(buy, price, 10 * ordersPerLevel, listener);
+		for (int i = 0; i < ordersPerLevel; i++) {
+			book.submit(!buy, price, 10, listener);
+		}
+		return filled;
+	}
+
+}
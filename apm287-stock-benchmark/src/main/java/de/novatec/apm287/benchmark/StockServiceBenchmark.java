@@ -0,0 +1,77 @@
+package de.novatec.apm287.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calls the engines directly. Throughput and sample time are reported for
+ * each benchmark, the latter gives the latency percentiles. Thread count is
+ * set with <code>-t</code>, the other dimensions with the parameters of this
+ * class and of the {@link EngineState}.
+ * <p>
+ * A trade is a buy followed by the sell of the same size, so the balance and
+ * holdings stay the same during the run. Trades above 5 stocks go through
+ * the approval.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class StockServiceBenchmark {
+
+	/**
+	 * Percentage of reads in the {@link #mixed(EngineState)} benchmark.
+	 */
+	@Param({ "90" })
+	public int readPercent;
+
+	/**
+	 * Size of each buy and sell.
+	 */
+	@Param({ "1" })
+	public int tradeSize;
+
+	private final SplittableRandom random = new SplittableRandom();
+
+	@Benchmark
+	public Object stocks(EngineState engine) {
+		return EngineState.await(engine.stockService.stockInfo());
+	}
+
+	@Benchmark
+	public Object balance(EngineState engine) {
+		return EngineState.await(engine.stockService.balance());
+	}
+
+	@Benchmark
+	public Object trade(EngineState engine) {
+		return trade(engine, engine.codes[random.nextInt(engine.codes.length)]);
+	}
+
+	@Benchmark
+	public Object mixed(EngineState engine) {
+		if (random.nextInt(100) < readPercent) {
+			return EngineState.await(random.nextBoolean() ? engine.stockService.stockInfo() : engine.stockService.balance());
+		}
+		return trade(engine, engine.codes[random.nextInt(engine.codes.length)]);
+	}
+
+	private Object trade(EngineState engine, String code) {
+		EngineState.await(engine.stockService.buy(code, tradeSize));
+		return EngineState.await(engine.stockService.sell(code, tradeSize));
+	}
+
+}
@@ -0,0 +1,240 @@
+package de.novatec.apm287.benchmark.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.RecoveryCompleted;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.util.Timeout;
+import de.novatec.apm287.akka.actors.state.BalanceState;
+import de.novatec.apm287.akka.actors.state.BalanceUpdateEvent;
+import de.novatec.apm287.common.journal.SegmentedLog;
+
+/**
+ * Measures the journal bytes per balance event and the recovery speed of each
+ * journal and serializer combination. Events are persisted one by one as the
+ * stock service actor does, then the actor is recovered from the events only
+ * (no snapshot) several times on a fresh actor system.
+ * <p>
+ * Payload is the size of the serialized events. Journal size is what the
+ * journal keeps for them: the records for the mapped journal, the files for
+ * LevelDB, which compresses and compacts them in the background, so its size
+ * depends on when the compaction runs.
+ * <p>
+ * Settings are read from the <code>journaltest.*</code> system properties,
+ * see {@link #property(String, String)} usages for the defaults.
+ */
+public class JournalTest {
+
+	private static final Timeout TIMEOUT = Timeout.apply(10, TimeUnit.MINUTES);
+
+	public static void main(String[] args) throws Exception {
+		String[] journals = property("journals", "leveldb,mapped").split(",");
+		String[] serializers = property("serializers", "java,balance").split(",");
+		int events = Integer.parseInt(property("events", "20000"));
+		int recoveries = Integer.parseInt(property("recoveries", "3"));
+		int symbols = Integer.parseInt(property("symbols", "100"));
+		File output = new File(property("output", "."));
+		output.mkdirs();
+
+		System.out.printf("%d events, %d stocks, best of %d recoveries%n", events, symbols, recoveries);
+		List<String> summary = new ArrayList<>();
+		for (String journal : journals) {
+			for (String serializer : serializers) {
+				String name = journal + "-" + serializer;
+				Path dir = output.toPath().resolve(name);
+				delete(dir);
+				Files.createDirectories(dir.resolve("journal"));
+				Config config = config(journal, serializer, dir);
+
+				AtomicLong payload = new AtomicLong();
+				long writeTime = write(config, events, symbols, payload);
+				long bytes = "mapped".equals(journal) ? mappedBytes(config) : size(dir.resolve("journal"));
+
+				long best = Long.MAX_VALUE;
+				for (int i = 0; i < recoveries; i++) {
+					long recoveryTime = recover(config, events);
+					System.out.printf("%s recovery %d took %d ms%n", name, i + 1, TimeUnit.NANOSECONDS.toMillis(recoveryTime));
+					best = Math.min(best, recoveryTime);
+				}
+
+				summary.add(String.format(
+						"%-20s payload %6.1f  journal %6.1f bytes/event  write %8.0f events/s  recovery %6d ms %10.0f events/s",
+						name, (double) payload.get() / events, (double) bytes / events, events / seconds(writeTime),
+						TimeUnit.NANOSECONDS.toMillis(best), events / seconds(best)));
+			}
+		}
+
+		System.out.println("== Journal size and recovery");
+		summary.forEach(System.out::println);
+		System.exit(0);
+	}
+
+	/**
+	 * @return Config using the journal and the serializer for the balance
+	 *         events, storing everything in the directory.
+	 */
+	private static Config config(String journal, String serializer, Path dir) {
+		String plugin = "mapped".equals(journal) ? "apm287.journal.mapped" : "akka.persistence.journal.leveldb";
+		return ConfigFactory.parseString("akka.persistence.journal.plugin = \"" + plugin + "\"\n"
+				+ "akka.persistence.journal.leveldb.dir = \"" + dir.resolve("journal") + "\"\n"
+				+ "apm287.journal.mapped.dir = \"" + dir.resolve("journal") + "\"\n"
+				+ "akka.persistence.snapshot-store.local.dir = \"" + dir.resolve("snapshots") + "\"\n"
+				+ "akka.actor.serialization-bindings {\n"
+				+ "  \"de.novatec.apm287.akka.actors.state.BalanceUpdateEvent\" = " + serializer + "\n"
+				+ "}\n"
+				+ "akka.actor.warn-about-java-serializer-usage = off\n"
+				+ "akka.loglevel = WARNING").withFallback(ConfigFactory.load());
+	}
+
+	/**
+	 * Persists the events.
+	 *
+	 * @param payload
+	 *            Adds the bytes of the serialized events.
+	 * @return Time until all events were persisted in ns.
+	 */
+	private static long write(Config config, int events, int symbols, AtomicLong payload) throws Exception {
+		ActorSystem system = ActorSystem.create("journal-test", config);
+		try {
+			Serialization serialization = SerializationExtension.get(system);
+			ActorRef actor = system.actorOf(Props.create(BalanceActor.class), "balance");
+			PatternsCS.ask(actor, "recovered", TIMEOUT).toCompletableFuture().get();
+
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			long start = System.nanoTime();
+			for (int i = 0; i < events; i++) {
+				int size = 1 + random.nextInt(10);
+				String code = String.format("S%03d", random.nextInt(symbols));
+				BalanceUpdateEvent event = new BalanceUpdateEvent(-size * random.nextDouble(50, 150), code, size);
+				payload.addAndGet(serialization.serialize(event).get().length);
+				actor.tell(event, ActorRef.noSender());
+			}
+			// answered once all events before were persisted
+			PatternsCS.ask(actor, "recovered", TIMEOUT).toCompletableFuture().get();
+			return System.nanoTime() - start;
+		} finally {
+			system.terminate();
+			system.getWhenTerminated().toCompletableFuture().get();
+		}
+	}
+
+	/**
+	 * Recovers the actor from the persisted events.
+	 *
+	 * @return Time until the recovery completed in ns.
+	 */
+	private static long recover(Config config, int events) throws Exception {
+		ActorSystem system = ActorSystem.create("journal-test", config);
+		try {
+			long start = System.nanoTime();
+			ActorRef actor = system.actorOf(Props.create(BalanceActor.class), "balance");
+			long recovered = (Long) PatternsCS.ask(actor, "recovered", TIMEOUT).toCompletableFuture().get();
+			long time = System.nanoTime() - start;
+			if (recovered != events) {
+				throw new IllegalStateException("Recovered " + recovered + " events instead of " + events + ".");
+			}
+			return time;
+		} finally {
+			system.terminate();
+			system.getWhenTerminated().toCompletableFuture().get();
+		}
+	}
+
+	/**
+	 * @return Bytes of the records in the mapped journal, segments are
+	 *         pre-allocated so their file size says nothing.
+	 */
+	private static long mappedBytes(Config config) throws IOException {
+		Config journal = config.getConfig("apm287.journal.mapped");
+		AtomicLong bytes = new AtomicLong();
+		try (SegmentedLog log = new SegmentedLog(new File(journal.getString("dir")).toPath(),
+				(int) journal.getBytes("segment-size").longValue(), "journal-test-scan")) {
+			// each record has the length and the checksum in front
+			log.scan(record -> bytes.addAndGet(record.remaining() + 8));
+		}
+		return bytes.get();
+	}
+
+	private static long size(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+		}
+	}
+
+	private static void delete(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	private static double seconds(long nanos) {
+		return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return Value of the <code>journaltest.</code> system property.
+	 */
+	private static String property(String name, String defaultValue) {
+		return System.getProperty("journaltest." + name, defaultValue);
+	}
+
+	/**
+	 * Persists each balance event it gets and applies it to the balance state,
+	 * same as the stock service actor does with the trades.
+	 */
+	public static class BalanceActor extends AbstractPersistentActor {
+
+		private BalanceState state = new BalanceState(10_000);
+
+		private long count;
+
+		@Override
+		public String persistenceId() {
+			return "journal-test";
+		}
+
+		@Override
+		public Receive createReceiveRecover() {
+			return receiveBuilder()
+					.match(BalanceUpdateEvent.class, this::update)
+					.match(RecoveryCompleted.class, r -> {})
+					.build();
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.match(BalanceUpdateEvent.class, e -> persist(e, this::update))
+					.matchEquals("recovered", m -> getSender().tell(count, getSelf()))
+					.build();
+		}
+
+		private void update(BalanceUpdateEvent event) {
+			state.update(event);
+			count++;
+		}
+	}
+
+}
@@ -0,0 +1,312 @@
+package de.novatec.apm287.benchmark.load;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Recorder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.novatec.apm287.common.service.IStockService;
+import reactor.core.publisher.Mono;
+
+/**
+ * Calls the {@link IStockService} directly, either in the open loop with a
+ * fixed arrival rate or in the closed loop with a fixed amount of clients.
+ * <p>
+ * In the open loop each request has an intended start time given by the
+ * rate, no matter if the requests before completed. Latency is recorded from
+ * the intended start, so time a request waited because the engine (or the
+ * generator) was stalled is counted, which corrects for coordinated omission.
+ * Latency from the actual start is recorded as well, the difference of the
+ * two shows the queueing.
+ * <p>
+ * Each request is either a read (<code>/stocks</code> or
+ * <code>/balance</code>) or a trade, a buy followed by the sell of the same
+ * size, so the balance and holdings stay the same during the run.
+ * <p>
+ * Each run has its own workers and counters. Requests still queued when a
+ * run ends are dropped with its workers, and the next run starts only once
+ * the engine completed the requests of the previous one, so the backlog of a
+ * missed run does not slow down the next.
+ */
+public class LoadGenerator {
+
+	/**
+	 * Requests not completed this long after the run are counted as
+	 * unfinished.
+	 */
+	private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * Requests of the previous run not completed this long before the next run
+	 * starts are left to the engine.
+	 */
+	private static final long SETTLE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * Open loop stops issuing requests when this many are outstanding, the
+	 * rest of the requests are counted as unfinished.
+	 */
+	private static final long MAX_OUTSTANDING = 1_000_000;
+
+	private final IStockService stockService;
+
+	private final String[] codes;
+
+	private final int readPercent;
+
+	private final int tradeSize;
+
+	private final int threads;
+
+	/**
+	 * Current or last run, <code>null</code> before the first run.
+	 */
+	private Run run;
+
+	/**
+	 * @param readPercent
+	 *            Percentage of reads, the rest are trades.
+	 * @param tradeSize
+	 *            Size of each buy and sell, sizes above 5 go through the
+	 *            approval.
+	 * @param threads
+	 *            Threads issuing the requests.
+	 */
+	public LoadGenerator(IStockService stockService, String[] codes, int readPercent, int tradeSize, int threads) {
+		this.stockService = stockService;
+		this.codes = codes;
+		this.readPercent = readPercent;
+		this.tradeSize = tradeSize;
+		this.threads = threads;
+	}
+
+	/**
+	 * Runs the open loop with the fixed arrival rate.
+	 *
+	 * @param rate
+	 *            Requests per second.
+	 * @param warmup
+	 *            Warmup in seconds, results are not recorded.
+	 * @param duration
+	 *            Measurement in seconds.
+	 */
+	public LoadResult open(double rate, int warmup, int duration) throws InterruptedException {
+		long interval = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / rate));
+		Run run = start(warmup);
+		long start = run.measureStart - TimeUnit.SECONDS.toNanos(warmup);
+		long end = run.measureStart + TimeUnit.SECONDS.toNanos(duration);
+
+		long skipped = 0;
+		for (long intended = start; intended < end; intended += interval) {
+			if (run.outstanding.get() > MAX_OUTSTANDING) {
+				skipped = (end - intended) / interval;
+				break;
+			}
+			long wait = intended - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			long intendedStart = intended;
+			run.outstanding.incrementAndGet();
+			run.workers.execute(() -> issue(run, intendedStart));
+		}
+		return result(run, rate, end, skipped);
+	}
+
+	/**
+	 * Runs the closed loop, each client issues the next request once the
+	 * previous completed. Latency is thus not corrected.
+	 *
+	 * @param clients
+	 *            Amount of clients, each on its own thread.
+	 * @param warmup
+	 *            Warmup in seconds, results are not recorded.
+	 * @param duration
+	 *            Measurement in seconds.
+	 */
+	public LoadResult closed(int clients, int warmup, int duration) throws InterruptedException {
+		Run run = start(warmup);
+		long end = run.measureStart + TimeUnit.SECONDS.toNanos(duration);
+
+		// clients wait for the results, so they can not run on the workers completing the trades
+		ExecutorService clientThreads = Executors.newFixedThreadPool(clients,
+				new ThreadFactoryBuilder().setNameFormat("load-client-%d").setDaemon(true).build());
+		for (int i = 0; i < clients; i++) {
+			clientThreads.execute(() -> {
+				while (System.nanoTime() < end) {
+					run.outstanding.incrementAndGet();
+					long now = System.nanoTime();
+					try {
+						toStage(issue(run)).toCompletableFuture().handle((v, t) -> {
+							complete(run, now, now, t);
+							return null;
+						}).join();
+					} catch (RuntimeException e) {
+						complete(run, now, now, e);
+					}
+				}
+			});
+		}
+		clientThreads.shutdown();
+		return result(run, 0, end, 0);
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		if (null != run) {
+			run.workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the engine to complete the requests of the previous run and
+	 * starts the new one.
+	 * 
+	 * @param warmup
+	 *            Warmup in seconds, results are not recorded.
+	 */
+	private Run start(int warmup) throws InterruptedException {
+		if (null != run) {
+			long start = System.nanoTime();
+			while (run.outstanding.get() > 0 && System.nanoTime() - start < SETTLE_TIMEOUT) {
+				Thread.sleep(10);
+			}
+			if (run.outstanding.get() > 0) {
+				System.out.println(run.outstanding.get() + " requests of the previous run are still outstanding.");
+			}
+		}
+		run = new Run(System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup), Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("load-generator-%d").setDaemon(true).build()));
+		return run;
+	}
+
+	/**
+	 * Waits for the end of the run and for the requests to complete.
+	 *
+	 * @param skipped
+	 *            Requests not issued as too many were outstanding.
+	 */
+	private LoadResult result(Run run, double rate, long end, long skipped) throws InterruptedException {
+		while (System.nanoTime() < end) {
+			Thread.sleep(10);
+		}
+		while (run.outstanding.get() > 0 && System.nanoTime() - end < DRAIN_TIMEOUT) {
+			Thread.sleep(10);
+		}
+		// requests still queued are never issued to the engine
+		long unfinished = run.outstanding.get() + skipped;
+		run.outstanding.addAndGet(-run.workers.shutdownNow().size());
+
+		double seconds = (double) (end - run.measureStart) / TimeUnit.SECONDS.toNanos(1);
+		return new LoadResult(rate, run.completed.get() / seconds, run.corrected.getIntervalHistogram(),
+				run.uncorrected.getIntervalHistogram(), run.errors.get(), unfinished);
+	}
+
+	/**
+	 * Issues the request and records it once completed.
+	 */
+	private void issue(Run run, long intended) {
+		long actual = System.nanoTime();
+		try {
+			toStage(issue(run)).whenComplete((v, t) -> complete(run, intended, actual, t));
+		} catch (RuntimeException e) {
+			complete(run, intended, actual, e);
+		}
+	}
+
+	/**
+	 * @return Result of the request.
+	 */
+	private Object issue(Run run) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (random.nextInt(100) < readPercent) {
+			return random.nextBoolean() ? stockService.stockInfo() : stockService.balance();
+		}
+
+		String code = codes[random.nextInt(codes.length)];
+		// sell is issued from the worker, not from the thread completing the buy
+		return toStage(stockService.buy(code, tradeSize)).thenComposeAsync(b -> toStage(stockService.sell(code, tradeSize)),
+				run.workers);
+	}
+
+	private void complete(Run run, long intended, long actual, Throwable t) {
+		long end = System.nanoTime();
+		if (intended >= run.measureStart) {
+			if (null != t) {
+				run.errors.incrementAndGet();
+			} else {
+				run.completed.incrementAndGet();
+				run.corrected.recordValue(end - intended);
+				run.uncorrected.recordValue(end - actual);
+			}
+		}
+		run.outstanding.decrementAndGet();
+	}
+
+	/**
+	 * @return Stage of the value, {@link CompletionStage} or {@link Mono} of the
+	 *         value.
+	 */
+	@SuppressWarnings("unchecked")
+	private static CompletionStage<Object> toStage(Object result) {
+		if (result instanceof CompletionStage) {
+			return (CompletionStage<Object>) result;
+		} else if (result instanceof Mono) {
+			return ((Mono<Object>) result).toFuture();
+		} else {
+			return CompletableFuture.completedFuture(result);
+		}
+	}
+
+	/**
+	 * Workers and results of a single run.
+	 */
+	private static class Run {
+
+		/**
+		 * Intended start from which on the results are recorded.
+		 */
+		private final long measureStart;
+
+		/**
+		 * Threads issuing the requests, results of async engines are recorded by
+		 * the thread completing them.
+		 */
+		private final ExecutorService workers;
+
+		/**
+		 * Latency from the intended start in ns.
+		 */
+		private final Recorder corrected = new Recorder(3);
+
+		/**
+		 * Latency from the actual start in ns.
+		 */
+		private final Recorder uncorrected = new Recorder(3);
+
+		private final AtomicLong completed = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		/**
+		 * Requests issued and not completed yet, including the warmup.
+		 */
+		private final AtomicLong outstanding = new AtomicLong();
+
+		Run(long measureStart, ExecutorService workers) {
+			this.measureStart = measureStart;
+			this.workers = workers;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package de.novatec.apm287.benchmark.load;
+
+import java.io.PrintStream;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Result of a single load generator run, latencies are in ns.
+ */
+public class LoadResult {
+
+	private static final double NANOS_PER_MILLI = 1_000_000d;
+
+	/**
+	 * Target arrival rate per second, <code>0</code> for the closed loop.
+	 */
+	public final double rate;
+
+	/**
+	 * Completed requests per second.
+	 */
+	public final double throughput;
+
+	/**
+	 * Latency from the intended start.
+	 */
+	public final Histogram corrected;
+
+	/**
+	 * Latency from the actual start.
+	 */
+	public final Histogram uncorrected;
+
+	/**
+	 * Requests that failed.
+	 */
+	public final long errors;
+
+	/**
+	 * Requests not completed after the run.
+	 */
+	public final long unfinished;
+
+	public LoadResult(double rate, double throughput, Histogram corrected, Histogram uncorrected, long errors,
+			long unfinished) {
+		this.rate = rate;
+		this.throughput = throughput;
+		this.corrected = corrected;
+		this.uncorrected = uncorrected;
+		this.errors = errors;
+		this.unfinished = unfinished;
+	}
+
+	/**
+	 * @return Corrected latency at the percentile in ms.
+	 */
+	public double getLatency(double percentile) {
+		return corrected.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return Uncorrected latency at the percentile in ms.
+	 */
+	public double getUncorrectedLatency(double percentile) {
+		return uncorrected.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @param targetP99
+	 *            Target corrected p99 latency in ms.
+	 * @return If the rate is sustained: all requests completed without errors
+	 *         within the target p99 and the throughput kept up with the rate.
+	 */
+	public boolean isSustainable(double targetP99) {
+		return 0 == errors && 0 == unfinished && corrected.getTotalCount() > 0 && getLatency(99) <= targetP99
+				&& throughput >= rate * 0.95;
+	}
+
+	/**
+	 * Prints the full corrected percentile distribution in ms, format can be
+	 * plotted with the HdrHistogram plotter.
+	 */
+	public void printDistribution(PrintStream out) {
+		corrected.outputPercentileDistribution(out, NANOS_PER_MILLI);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("rate %10.0f/s  throughput %10.0f/s  p50 %8.3f  p99 %8.3f  p99.9 %8.3f  max %8.3f ms  (uncorrected p99 %8.3f ms)  errors %d  unfinished %d",
+				rate, throughput, getLatency(50), getLatency(99), getLatency(99.9),
+				corrected.getMaxValue() / NANOS_PER_MILLI, getUncorrectedLatency(99), errors, unfinished);
+	}
+
+}
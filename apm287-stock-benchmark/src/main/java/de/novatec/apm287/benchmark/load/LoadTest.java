@@ -0,0 +1,130 @@
+package de.novatec.apm287.benchmark.load;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.novatec.apm287.benchmark.Engine;
+
+/**
+ * Finds the max sustainable throughput of each engine for each approval
+ * latency: the highest open loop arrival rate where all requests complete
+ * within the target p99 (corrected for coordinated omission). The rate is
+ * doubled until the target is missed, then the range is bisected.
+ * <p>
+ * Settings are read from the <code>loadtest.*</code> system properties, see
+ * {@link #property(String, String)} usages for the defaults.
+ */
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		String[] engines = property("engines", "akka,java-sync,java-concurrent").split(",");
+		String[] approvalSleeps = property("approvalSleeps", "0,1,50").split(",");
+		int symbols = Integer.parseInt(property("symbols", "5"));
+		int readPercent = Integer.parseInt(property("readPercent", "90"));
+		int tradeSize = Integer.parseInt(property("tradeSize", "1"));
+		int threads = Integer.parseInt(property("threads", "256"));
+		double targetP99 = Double.parseDouble(property("targetP99", "10"));
+		double rateFrom = Double.parseDouble(property("rateFrom", "1000"));
+		double rateMax = Double.parseDouble(property("rateMax", "1000000"));
+		int steps = Integer.parseInt(property("steps", "5"));
+		int warmup = Integer.parseInt(property("warmup", "5"));
+		int duration = Integer.parseInt(property("duration", "10"));
+		int clients = Integer.parseInt(property("clients", "0"));
+		File output = new File(property("output", "."));
+		output.mkdirs();
+
+		System.out.printf("Target p99 %s ms, %d%% reads, trade size %d, %d stocks%n", targetP99, readPercent, tradeSize,
+				symbols);
+		List<String> summary = new ArrayList<>();
+		for (String engineName : engines) {
+			for (String approvalSleep : approvalSleeps) {
+				String name = engineName + "-approval-" + approvalSleep + "ms";
+				System.out.println("== " + name);
+				try (Engine engine = new Engine(engineName, symbols, Integer.parseInt(approvalSleep))) {
+					LoadGenerator generator = new LoadGenerator(engine.stockService, engine.codes, readPercent, tradeSize,
+							threads);
+					try {
+						if (clients > 0) {
+							LoadResult closed = generator.closed(clients, warmup, duration);
+							System.out.println("closed loop " + clients + " clients: " + closed);
+						}
+
+						LoadResult best = search(generator, targetP99, rateFrom, rateMax, steps, warmup, duration);
+						if (null == best) {
+							summary.add(String.format("%-40s not sustainable at %.0f/s", name, rateFrom));
+						} else {
+							summary.add(String.format("%-40s %10.0f/s  p50 %8.3f  p99 %8.3f  p99.9 %8.3f ms", name,
+									best.rate, best.getLatency(50), best.getLatency(99), best.getLatency(99.9)));
+							write(new File(output, name + ".hgrm"), best);
+						}
+					} finally {
+						generator.shutdown();
+					}
+				}
+			}
+		}
+
+		System.out.println("== Max sustainable throughput at p99 <= " + targetP99 + " ms");
+		summary.forEach(System.out::println);
+		System.exit(0);
+	}
+
+	/**
+	 * @return Result at the highest sustainable rate, <code>null</code> if
+	 *         even the starting rate is not sustainable.
+	 */
+	private static LoadResult search(LoadGenerator generator, double targetP99, double rateFrom, double rateMax,
+			int steps, int warmup, int duration) throws InterruptedException {
+		LoadResult best = null;
+		double failed = 0;
+		for (double rate = rateFrom; rate <= rateMax; rate *= 2) {
+			LoadResult result = run(generator, rate, targetP99, warmup, duration);
+			if (!result.isSustainable(targetP99)) {
+				failed = rate;
+				break;
+			}
+			best = result;
+		}
+		if (null == best || 0 == failed) {
+			return best;
+		}
+
+		double low = best.rate;
+		double high = failed;
+		for (int i = 0; i < steps; i++) {
+			double rate = (low + high) / 2;
+			LoadResult result = run(generator, rate, targetP99, warmup, duration);
+			if (result.isSustainable(targetP99)) {
+				best = result;
+				low = rate;
+			} else {
+				high = rate;
+			}
+		}
+		return best;
+	}
+
+	private static LoadResult run(LoadGenerator generator, double rate, double targetP99, int warmup, int duration)
+			throws InterruptedException {
+		LoadResult result = generator.open(rate, warmup, duration);
+		System.out.println((result.isSustainable(targetP99) ? "ok   " : "miss ") + result);
+		return result;
+	}
+
+	private static void write(File file, LoadResult result) throws FileNotFoundException {
+		try (PrintStream out = new PrintStream(file)) {
+			result.printDistribution(out);
+		}
+	}
+
+	/**
+	 * @return Value of the <code>loadtest.</code> system property.
+	 */
+	private static String property(String name, String defaultValue) {
+		return System.getProperty("loadtest." + name, defaultValue);
+	}
+
+}
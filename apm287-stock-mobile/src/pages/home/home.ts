@@ -1,4 +1,4 @@
-import { Component, ViewChild } from '@angular/core';
+import { Component, NgZone, ViewChild } from '@angular/core';
 import { NavController } from 'ionic-angular';
 import { BalanceInfo } from '../../common/BalanceInfo';
 import { StockInfo } from '../../common/StockInfo';
@@ -14,13 +14,22 @@ import 'rxjs/Rx';
 export class HomePage {
   @ViewChild('lineCanvas') lineCanvas;
   stocks: StockInfo[] = [];
+  // same stocks by code, so price updates do not scan the list
+  stocksByCode: { [code: string]: StockInfo } = {};
+  fetchingStocks: boolean = false;
   balance: BalanceInfo = new BalanceInfo(0, 0, 0);
   chart: Chart;
+  // time of the last chart point, streamed prices add at most one point per chartInterval ms
+  lastChartPoint: number = 0;
+  chartInterval: number = 1000;
+  // oldest points are dropped once the chart has more
+  maxChartPoints: number = 300;
   serviceIp: string = "localhost";
   servicePort: string = "8080";
   showGraph: boolean = false;
+  priceStream: EventSource;
 
-  constructor(private http: Http, private loadingCtrl: LoadingController, private alertCtrl: AlertController, private toastCtrl: ToastController) {
+  constructor(private http: Http, private zone: NgZone, private loadingCtrl: LoadingController, private alertCtrl: AlertController, private toastCtrl: ToastController) {
    
   }
 
@@ -52,13 +61,8 @@ export class HomePage {
                 });
                 toast.present();
               } else {
-                let stockInfo = dat.stockInfo;
-                for (var i = 0; i < this.stocks.length; i++) {
-                  if (this.stocks[i].code === stockInfo.code) {
-                    this.stocks[i] = stockInfo;
-                    break;
-                  }
-                }
+                this.updateStock(dat.stockInfo);
+                this.fetchBalace();
               }
             },
             (err) => {
@@ -103,13 +107,8 @@ export class HomePage {
                 });
                 toast.present();
               } else {
-                let stockInfo = dat.stockInfo;
-                for (var i = 0; i < this.stocks.length; i++) {
-                  if (this.stocks[i].code === stockInfo.code) {
-                    this.stocks[i] = stockInfo;
-                    break;
-                  }
-                }
+                this.updateStock(dat.stockInfo);
+                this.fetchBalace();
               }
             },
             (err) => {
@@ -127,6 +126,11 @@ export class HomePage {
   }
 
   fetchStocks() {
+    // one request at a time, price updates of unknown stocks arrive in bursts
+    if (this.fetchingStocks) {
+      return;
+    }
+    this.fetchingStocks = true;
     console.log("Fetching stocks..");
     this.http.get('http://' + this.serviceIp + ':' + this.servicePort + '/stocks')
       .map((response: Response) => {
@@ -134,14 +138,43 @@ export class HomePage {
       })
       .subscribe(
         (data) => {
-          this.stocks = data.stockPrices;
+          this.fetchingStocks = false;
+          this.setStocks(data.stockPrices);
+
+          // prices are streamed once there are stocks to update
+          if (!this.priceStream) {
+            this.subscribePrices();
+          }
         },
         (err) => {
+          this.fetchingStocks = false;
           console.log(err);
         }
       );
   }
 
+  setStocks(stocks: StockInfo[]) {
+    this.stocks = stocks;
+    this.stocksByCode = {};
+    var exposure = 0;
+    for (var i = 0; i < stocks.length; i++) {
+      this.stocksByCode[stocks[i].code] = stocks[i];
+      exposure += stocks[i].price * stocks[i].holding;
+    }
+    this.balance.exposure = exposure;
+  }
+
+  updateStock(stockInfo: StockInfo) {
+    var stock = this.stocksByCode[stockInfo.code];
+    if (!stock) {
+      this.fetchStocks();
+      return;
+    }
+    stock.price = stockInfo.price;
+    stock.change = stockInfo.change;
+    stock.holding = stockInfo.holding;
+  }
+
   fetchBalace() {
     console.log("Fetching balance..");
     this.http.get('http://' + this.serviceIp + ':' + this.servicePort + '/balance')
@@ -152,28 +185,7 @@ export class HomePage {
         (data) => {
           var balanceUpdate = data.balanceInfo;
           this.balance = balanceUpdate;
-
-          // do nothing when we don't need to
-          if (!this.showGraph) {
-            return;
-          }
-
-          // create chart if needed
-          if (!this.chart) {
-            console.log("Creating chart..");
-            this.createChart();
-          }
-          
-          this.chart.data.labels.push(new Date(balanceUpdate.timestamp).toDateString());
-          this.chart.data.datasets.forEach((dataset) => {
-            console.log("Dataset " + dataset.label);
-            if ('Balance' === dataset.label) {
-               dataset.data.push(balanceUpdate.balance);
-            } else if ('Exposure' === dataset.label) {
-              dataset.data.push(balanceUpdate.exposure);
-            }
-          });
-          this.chart.update();
+          this.addChartPoint(balanceUpdate.timestamp);
         },
         (err) => {
           console.log(err);
@@ -181,6 +193,70 @@ export class HomePage {
       );
   }
 
+  addChartPoint(timestamp: number) {
+    // do nothing when we don't need to
+    if (!this.showGraph) {
+      return;
+    }
+
+    // create chart if needed
+    if (!this.chart) {
+      console.log("Creating chart..");
+      this.createChart();
+    }
+
+    this.lastChartPoint = timestamp;
+    this.chart.data.labels.push(new Date(timestamp).toLocaleTimeString());
+    this.chart.data.datasets.forEach((dataset) => {
+      if ('Balance' === dataset.label) {
+         dataset.data.push(this.balance.balance);
+      } else if ('Exposure' === dataset.label) {
+        dataset.data.push(this.balance.exposure);
+      }
+    });
+    if (this.chart.data.labels.length > this.maxChartPoints) {
+      this.chart.data.labels.shift();
+      this.chart.data.datasets.forEach((dataset) => dataset.data.shift());
+    }
+    this.chart.update();
+  }
+
+  subscribePrices() {
+    console.log("Subscribing to prices..");
+    this.priceStream = new EventSource('http://' + this.serviceIp + ':' + this.servicePort + '/stream/prices');
+    this.priceStream.onmessage = (event) => {
+      var update = JSON.parse(event.data);
+      this.zone.run(() => this.updatePrice(update.code, update.price));
+    };
+    this.priceStream.onerror = (err) => {
+      console.log(err);
+    };
+  }
+
+  updatePrice(code: string, price: number) {
+    var stock = this.stocksByCode[code];
+
+    // new stock, get full info
+    if (!stock) {
+      this.fetchStocks();
+      return;
+    }
+
+    // exposure follows the prices, balance only changes on buy and sell
+    this.balance.exposure += (price - stock.price) * stock.holding;
+    stock.price = price;
+    if (stock.startingPrice > price) {
+      stock.change = -1.0 * (stock.startingPrice / price - 1.0);
+    } else {
+      stock.change = price / stock.startingPrice - 1.0;
+    }
+
+    var now = Date.now();
+    if (now - this.lastChartPoint >= this.chartInterval) {
+      this.addChartPoint(now);
+    }
+  }
+
   ionViewDidLoad() {
     var loading = this.loadingCtrl.create({
         content: "Fetching data..",
@@ -188,12 +264,12 @@ export class HomePage {
     });
     this.fetchStocks();
     this.fetchBalace();
+  }
 
-    var thisVar = this;
-    setInterval(function() { 
-      thisVar.fetchStocks();
-      thisVar.fetchBalace();
-    }, 5000);
+  ionViewWillUnload() {
+    if (this.priceStream) {
+      this.priceStream.close();
+    }
   }
 
   createChart() {
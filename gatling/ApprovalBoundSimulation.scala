@@ -0,0 +1,21 @@
+package de.novatec.apm287.gatling
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+import Workload._
+
+/**
+ * Trades above the approval threshold, so each buy waits for the
+ * ApprovalService. Size is 10 unless set with apm287.size.
+ */
+class ApprovalBoundSimulation extends Simulation {
+
+	val approvalSize = property("size", "10").toInt
+
+	val scn = scenario("ApprovalBound")
+		.feed(codeFeeder(hotspot))
+		.exec(trade(approvalSize))
+
+	setUp(constant(scn)).protocols(httpProtocol)
+}
@@ -0,0 +1,20 @@
+package de.novatec.apm287.gatling
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+import Workload._
+
+/**
+ * Same as the trade heavy workload, but most trades (apm287.hotspot, 0.9 by
+ * default) go to the few hot stocks (apm287.hotCodes), so engines locking per
+ * stock contend on them. Compare with the uniform TradeHeavySimulation.
+ */
+class HotSpotSimulation extends Simulation {
+
+	val scn = scenario("HotSpot")
+		.feed(codeFeeder(property("hotspot", "0.9").toDouble))
+		.exec(trade(size))
+
+	setUp(constant(scn)).protocols(httpProtocol)
+}
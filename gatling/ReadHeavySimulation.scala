@@ -0,0 +1,23 @@
+package de.novatec.apm287.gatling
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+import Workload._
+
+/**
+ * Clients polling /stocks and /balance, each user polls the given amount of
+ * times (apm287.polls). With caching enabled repeated polls send the ETag and
+ * get 304 as long as nothing changed.
+ */
+class ReadHeavySimulation extends Simulation {
+
+	val polls = property("polls", "10").toInt
+
+	val scn = scenario("ReadHeavy")
+		.repeat(polls) {
+			exec(stocks).exec(balance)
+		}
+
+	setUp(constant(scn)).protocols(httpProtocol)
+}
@@ -0,0 +1,26 @@
+package de.novatec.apm287.gatling
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+import Workload._
+
+/**
+ * Mixed workload of the StockSimulation with the arrival rate ramped from
+ * apm287.rateFrom to apm287.rateTo during the duration, the rate where
+ * response times start growing is the saturation point of the engine.
+ */
+class SaturationSimulation extends Simulation {
+
+	val rateFrom = property("rateFrom", "10").toDouble
+
+	val rateTo = property("rateTo", "2000").toDouble
+
+	val scn = scenario("Saturation")
+		.feed(codeFeeder(hotspot))
+		.exec(stocks)
+		.exec(balance)
+		.exec(trade(size))
+
+	setUp(scn.inject(rampUsersPerSec(rateFrom) to (rateTo) during (duration) randomized)).protocols(httpProtocol)
+}
@@ -0,0 +1,19 @@
+package de.novatec.apm287.gatling
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+import Workload._
+
+/**
+ * Clients only trading, each user buys and sells the same size of a stock
+ * picked uniformly (or hot with apm287.hotspot).
+ */
+class TradeHeavySimulation extends Simulation {
+
+	val scn = scenario("TradeHeavy")
+		.feed(codeFeeder(hotspot))
+		.exec(trade(size))
+
+	setUp(constant(scn)).protocols(httpProtocol)
+}
@@ -0,0 +1,78 @@
+package de.novatec.apm287.gatling
+
+import scala.concurrent.duration._
+import scala.util._
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+/**
+ * Settings and requests shared by the workload simulations. All settings are
+ * read from the system properties (pass them with JAVA_OPTS), so the same
+ * simulation can be run against each engine with the same load.
+ */
+object Workload {
+
+	def property(name: String, default: String): String = System.getProperty("apm287." + name, default)
+
+	/** Backend to test. */
+	val baseUrl = property("baseUrl", "http://localhost:8080")
+
+	/** Arriving users per second. */
+	val rate = property("rate", "100").toDouble
+
+	/** Duration of the load in seconds. */
+	val duration = property("duration", "60").toInt seconds
+
+	/** Size of each buy and sell, sizes above 5 go through the approval. */
+	val size = property("size", "1").toInt
+
+	/** Share of the trades going to the hot stocks, 0 for the uniform distribution. */
+	val hotspot = property("hotspot", "0").toDouble
+
+	/** Amount of hot stocks. */
+	val hotCodes = property("hotCodes", "1").toInt
+
+	/** If ETag of /stocks and /balance should be used, so repeated polls get 304. */
+	val caching = property("caching", "true").toBoolean
+
+	/** Codes of all stocks, read from the backend once. */
+	lazy val codes: IndexedSeq[String] = {
+		val source = scala.io.Source.fromURL(baseUrl + "/stocks")
+		try {
+			"\"code\":\"([^\"]+)\"".r.findAllMatchIn(source.mkString).map(_.group(1)).toIndexedSeq.sorted
+		} finally {
+			source.close()
+		}
+	}
+
+	val httpProtocol = {
+		val protocol = http
+			.baseURL(baseUrl)
+			.acceptHeader("application/json")
+			.acceptEncodingHeader("gzip, deflate")
+			.userAgentHeader("apm287-gatling")
+		if (caching) protocol else protocol.disableCaching
+	}
+
+	val rnd = new scala.util.Random
+
+	/** Feeds the code to trade, either hot or uniform. */
+	def codeFeeder(hotspot: Double) = Iterator.continually {
+		val hot = math.min(hotCodes, codes.size)
+		val code = if (rnd.nextDouble() < hotspot) codes(rnd.nextInt(hot)) else codes(rnd.nextInt(codes.size))
+		Map("code" -> code)
+	}
+
+	val stocks = exec(http("Overview").get("/stocks"))
+
+	val balance = exec(http("Balance").get("/balance"))
+
+	def trade(size: Int) = exec(http("Buy").get("/buy?c=${code}&s=" + size))
+		.exec(http("Sell").get("/sell?c=${code}&s=" + size))
+
+	/** Constant arrival rate, the same for all workloads. */
+	def constant(scn: io.gatling.core.structure.ScenarioBuilder) =
+		scn.inject(constantUsersPerSec(rate) during (duration) randomized)
+
+}
@@ -0,0 +1,90 @@
+#!/bin/bash
+# Runs the same Gatling simulation against each engine and writes a side-by-side report.
+#
+# usage: gatling/compare.sh [-s simulation] [-o output dir] [-x executors] [engine ...]
+#
+# engines default to akka, java-sync and java-concurrent, any apm287.service option can be given
+# executors default to platform, with -x "platform virtual" each engine runs once per apm287.executor, the
+# virtual threads need the backend to run on Java 21, given with JAVA=<java 21 home>/bin/java
+# GATLING_HOME must point to the Gatling bundle, simulation settings are passed with JAVA_OPTS, e.g.
+# JAVA_OPTS="-Dapm287.rate=400 -Dapm287.duration=60" gatling/compare.sh -s TradeHeavySimulation akka java-sync
+# extra backend arguments (e.g. approval settings) are passed with BACKEND_ARGS
+
+set -e
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+BACKEND="$DIR/../apm287-stock-backend"
+SIMULATION=StockSimulation
+OUTPUT="$DIR/results"
+EXECUTORS=platform
+PORT=8080
+JAVA=${JAVA:-java}
+
+while getopts "s:o:x:" opt; do
+	case $opt in
+		s) SIMULATION=$OPTARG ;;
+		o) OUTPUT=$OPTARG ;;
+		x) EXECUTORS=$OPTARG ;;
+		*) exit 1 ;;
+	esac
+done
+shift $((OPTIND - 1))
+ENGINES=${@:-akka java-sync java-concurrent}
+
+if [ -z "$GATLING_HOME" ]; then
+	echo "GATLING_HOME is not set"
+	exit 1
+fi
+
+JAR=$(ls "$BACKEND"/build/libs/*.jar 2>/dev/null | head -1)
+if [ -z "$JAR" ]; then
+	(cd "$BACKEND" && ./gradlew assemble)
+	JAR=$(ls "$BACKEND"/build/libs/*.jar | head -1)
+fi
+
+RUN="$OUTPUT/$SIMULATION-$(date +%Y%m%d-%H%M%S)"
+mkdir -p "$RUN"
+
+RUNS=""
+for ENGINE in $ENGINES; do
+	for EXECUTOR in $EXECUTORS; do
+		# runs are named by the engine, or by engine and executor when comparing executors
+		NAME=$ENGINE
+		if [ "$EXECUTORS" != "platform" ]; then
+			NAME=$ENGINE-$EXECUTOR
+		fi
+		RUNS="$RUNS $NAME"
+
+		echo "Running $SIMULATION against $NAME"
+		WEB=servlet
+		if [ "$ENGINE" = "reactor" ]; then
+			WEB=reactive
+		fi
+
+		# fresh journals for each run, so all start with the same balance
+		WORK="$RUN/$NAME/backend"
+		mkdir -p "$WORK"
+		(cd "$WORK" && exec "$JAVA" -Xms4g -Xmx4g -jar "$JAR" --apm287.service=$ENGINE --spring.main.web-application-type=$WEB \
+			--apm287.executor=$EXECUTOR --server.port=$PORT $BACKEND_ARGS > backend.log 2>&1) &
+		PID=$!
+		trap "kill $PID 2>/dev/null" EXIT
+
+		until curl -sf "http://localhost:$PORT/balance" > /dev/null; do
+			if ! kill -0 $PID 2>/dev/null; then
+				echo "Backend failed to start, see $WORK/backend.log"
+				exit 1
+			fi
+			sleep 1
+		done
+
+		JAVA_OPTS="$JAVA_OPTS -Dapm287.baseUrl=http://localhost:$PORT" "$GATLING_HOME/bin/gatling.sh" -m \
+			-sf "$DIR" -s "de.novatec.apm287.gatling.$SIMULATION" -rf "$RUN/$NAME" -on "$NAME" > "$RUN/$NAME/gatling.log" 2>&1 \
+			|| echo "Gatling failed for $NAME, see $RUN/$NAME/gatling.log"
+
+		kill $PID
+		wait $PID 2>/dev/null || true
+	done
+done
+
+python3 "$DIR/report.py" "$RUN" $RUNS > "$RUN/comparison.md"
+cat "$RUN/comparison.md"
@@ -0,0 +1,78 @@
+#!/usr/bin/env python3
+"""Side-by-side markdown report of Gatling runs, one run per engine.
+
+usage: report.py <run dir> <engine> [engine ...]
+
+Reads the js/stats.json of the latest Gatling report under <run dir>/<engine>.
+Percentiles are the Gatling defaults (50, 75, 95, 99).
+"""
+
+import glob
+import json
+import os
+import sys
+
+COLUMNS = [
+    ("requests", lambda s: s["numberOfRequests"]["total"]),
+    ("KO", lambda s: s["numberOfRequests"]["ko"]),
+    ("req/s", lambda s: s["meanNumberOfRequestsPerSecond"]["total"]),
+    ("mean ms", lambda s: s["meanResponseTime"]["total"]),
+    ("p50 ms", lambda s: s["percentiles1"]["total"]),
+    ("p75 ms", lambda s: s["percentiles2"]["total"]),
+    ("p95 ms", lambda s: s["percentiles3"]["total"]),
+    ("p99 ms", lambda s: s["percentiles4"]["total"]),
+    ("max ms", lambda s: s["maxResponseTime"]["total"]),
+]
+
+
+def load(run, engine):
+    reports = sorted(glob.glob(os.path.join(run, engine, "*", "js", "stats.json")), key=os.path.getmtime)
+    if not reports:
+        return None
+    with open(reports[-1]) as f:
+        return json.load(f)
+
+
+def number(value):
+    try:
+        return "%g" % round(float(value), 1)
+    except (TypeError, ValueError):
+        return str(value)
+
+
+def table(title, rows):
+    lines = ["### " + title, "", "| engine | " + " | ".join(c for c, _ in COLUMNS) + " |",
+             "|---" * (len(COLUMNS) + 1) + "|"]
+    for engine, stats in rows:
+        if stats is None:
+            lines.append("| " + engine + " |" + " - |" * len(COLUMNS))
+        else:
+            lines.append("| " + engine + " | " + " | ".join(number(f(stats)) for _, f in COLUMNS) + " |")
+    return "\n".join(lines) + "\n"
+
+
+def main():
+    run, engines = sys.argv[1], sys.argv[2:]
+    results = {engine: load(run, engine) for engine in engines}
+
+    print("## " + os.path.basename(os.path.normpath(run)) + "\n")
+    print(table("All requests", [(e, r["stats"] if r else None) for e, r in results.items()]))
+
+    names = []
+    for result in results.values():
+        for request in (result or {}).get("contents", {}).values():
+            if request["name"] not in names:
+                names.append(request["name"])
+    for name in names:
+        rows = []
+        for engine, result in results.items():
+            stats = None
+            for request in (result or {}).get("contents", {}).values():
+                if request["name"] == name:
+                    stats = request["stats"]
+            rows.append((engine, stats))
+        print(table(name, rows))
+
+
+if __name__ == "__main__":
+    main()